@@ -2,6 +2,7 @@
 plugins {
     java
     application
+    id("me.champeau.gradle.jmh") version "0.4.8"
 }
 
 java {
@@ -29,6 +30,12 @@ dependencies {
     testRuntime("org.junit.jupiter:junit-jupiter-engine:5.4.0")
 }
 
+jmh {
+    jmhVersion = "1.21"
+    // The same limit as for the tests and the application
+    jvmArgs = listOf("-Xmx128m")
+}
+
 val run by tasks.getting(JavaExec::class) {
     standardInput = System.`in`
 }
@@ -0,0 +1,76 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point operations over the storage filled with {@link #records} random records.
+ *
+ * @author tuzhms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DAOBenchmark {
+    @Param({"100000"})
+    private int records;
+
+    @Param({"16"})
+    private int keyLength;
+
+    @Param({"128", "1024"})
+    private int valueLength;
+
+    private Dataset dataset;
+
+    @Setup
+    public void setup() throws IOException {
+        dataset = new Dataset(records, keyLength, valueLength);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.close();
+    }
+
+    /**
+     * Overwrites the stored keys, so the storage doesn't grow beyond the dataset between the compactions.
+     */
+    @Benchmark
+    public void upsert() throws IOException {
+        dataset.dao().upsert(dataset.storedKey(), dataset.value());
+    }
+
+    @Benchmark
+    public ByteBuffer getHit() throws IOException {
+        return dataset.dao().get(dataset.storedKey());
+    }
+
+    @Benchmark
+    public boolean getMiss() throws IOException {
+        try {
+            dataset.dao().get(dataset.absentKey());
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
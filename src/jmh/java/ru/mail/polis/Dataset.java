@@ -0,0 +1,91 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Storage filled with random records of the given sizes, the defaults match {@code TestBase}.
+ * The keys to look up are generated in advance and taken in turn, so the measured operations don't generate them.
+ *
+ * @author tuzhms
+ */
+final class Dataset {
+    static final int KEY_LENGTH = 16;
+    static final int VALUE_LENGTH = 1024;
+
+    private final Random random = new Random(1);
+    private final File data;
+    private final DAO dao;
+    private final ByteBuffer[] keys;
+    private final ByteBuffer[] absentKeys;
+    private final ByteBuffer value;
+    private int nextKey;
+    private int nextAbsentKey;
+
+    /**
+     * Creates the storage in a temporary directory and fills it.
+     */
+    Dataset(
+            final int records,
+            final int keyLength,
+            final int valueLength) throws IOException {
+        this.data = java.nio.file.Files.createTempDirectory("lsm-bench").toFile();
+        this.dao = DAOFactory.create(data);
+        this.keys = new ByteBuffer[records];
+        this.value = randomBuffer(valueLength);
+        for (int i = 0; i < records; i++) {
+            keys[i] = randomBuffer(keyLength);
+            dao.upsert(keys[i], value);
+        }
+        this.absentKeys = new ByteBuffer[records];
+        for (int i = 0; i < records; i++) {
+            absentKeys[i] = randomBuffer(keyLength);
+        }
+    }
+
+    @NotNull
+    DAO dao() {
+        return dao;
+    }
+
+    @NotNull
+    ByteBuffer value() {
+        return value;
+    }
+
+    /**
+     * Returns the next of the stored keys, they are random, so the order is random as well.
+     */
+    @NotNull
+    ByteBuffer storedKey() {
+        final ByteBuffer result = keys[nextKey];
+        nextKey = (nextKey + 1) % keys.length;
+        return result;
+    }
+
+    /**
+     * Returns the next of the random keys which are almost certainly absent.
+     */
+    @NotNull
+    ByteBuffer absentKey() {
+        final ByteBuffer result = absentKeys[nextAbsentKey];
+        nextAbsentKey = (nextAbsentKey + 1) % absentKeys.length;
+        return result;
+    }
+
+    void close() throws IOException {
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @NotNull
+    private ByteBuffer randomBuffer(final int length) {
+        final byte[] result = new byte[length];
+        random.nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+}
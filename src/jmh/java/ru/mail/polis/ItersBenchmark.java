@@ -0,0 +1,86 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges {@link #sources} sorted runs of {@link #size} records with overlapping keys
+ * and collapses the equal keys of their concatenation.
+ *
+ * @author tuzhms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItersBenchmark {
+    @Param({"2", "8", "32"})
+    private int sources;
+
+    @Param({"10000"})
+    private int size;
+
+    private List<List<Record>> runs;
+    private List<Record> sorted;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        final ByteBuffer value = ByteBuffer.allocate(Dataset.VALUE_LENGTH);
+        runs = new ArrayList<>(sources);
+        sorted = new ArrayList<>(sources * size);
+        for (int i = 0; i < sources; i++) {
+            final List<Record> run = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                final ByteBuffer key = ByteBuffer.allocate(Dataset.KEY_LENGTH);
+                // The runs interleave and share some of the keys
+                key.putLong(0, (long) j * sources + random.nextInt(sources));
+                run.add(Record.of(key, value));
+            }
+            run.sort(Comparator.naturalOrder());
+            runs.add(run);
+            sorted.addAll(run);
+        }
+        sorted.sort(Comparator.naturalOrder());
+    }
+
+    @Benchmark
+    public void merge(final Blackhole blackhole) {
+        final List<Iterator<Record>> iterators = new ArrayList<>(sources);
+        for (final List<Record> run : runs) {
+            iterators.add(run.iterator());
+        }
+        final Iterator<Record> merged = Iters.merge(iterators, Comparator.naturalOrder());
+        while (merged.hasNext()) {
+            blackhole.consume(merged.next());
+        }
+    }
+
+    @Benchmark
+    public void collapseEquals(final Blackhole blackhole) {
+        final Iterator<Record> collapsed = Iters.collapseEquals(sorted.iterator(), Record::getKey);
+        while (collapsed.hasNext()) {
+            blackhole.consume(collapsed.next());
+        }
+    }
+}
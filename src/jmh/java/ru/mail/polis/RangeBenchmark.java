@@ -0,0 +1,74 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans of {@link #length} records starting at a random key through the iterator and through the cursor.
+ *
+ * @author tuzhms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeBenchmark {
+    @Param({"100000"})
+    private int records;
+
+    @Param({"16"})
+    private int keyLength;
+
+    @Param({"1024"})
+    private int valueLength;
+
+    @Param({"1", "10", "100", "1000"})
+    private int length;
+
+    private Dataset dataset;
+
+    @Setup
+    public void setup() throws IOException {
+        dataset = new Dataset(records, keyLength, valueLength);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dataset.close();
+    }
+
+    @Benchmark
+    public void iterator(final Blackhole blackhole) throws IOException {
+        final Iterator<Record> records = dataset.dao().iterator(dataset.absentKey());
+        for (int i = 0; i < length && records.hasNext(); i++) {
+            blackhole.consume(records.next());
+        }
+    }
+
+    @Benchmark
+    public void cursor(final Blackhole blackhole) throws IOException {
+        final Cursor cursor = dataset.dao().cursor();
+        cursor.seek(dataset.absentKey());
+        for (int i = 0; i < length && cursor.valid(); i++) {
+            blackhole.consume(cursor.value());
+            cursor.next();
+        }
+    }
+}
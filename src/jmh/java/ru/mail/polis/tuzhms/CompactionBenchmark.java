@@ -0,0 +1,112 @@
+package ru.mail.polis.tuzhms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Merges {@link #tables} tables of random records into one by the size-tiered compaction.
+ * The tables are written without compaction before every iteration, then the storage is reopened
+ * with compaction enabled and the benchmark waits for a single table to remain.
+ *
+ * @author tuzhms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompactionBenchmark {
+    /**
+     * A failed compaction is just logged, so the iteration fails once the tables aren't merged in time.
+     */
+    private static final long TIMEOUT_MINUTES = 10;
+
+    @Param({"16"})
+    private int keyLength;
+
+    @Param({"1024"})
+    private int valueLength;
+
+    @Param({"4194304"})
+    private int flushThreshold;
+
+    @Param({"4", "16"})
+    private int tables;
+
+    private final Random random = new Random(1);
+    private Path dir;
+
+    @Setup(Level.Iteration)
+    public void fill() throws IOException {
+        dir = Files.createTempDirectory("lsm-bench");
+        final Config config =
+                Config.builder()
+                        .flushThreshold(flushThreshold)
+                        .compactionThreads(0)
+                        .build();
+        final byte[] key = new byte[keyLength];
+        final byte[] value = new byte[valueLength];
+        try (LSMDao dao = new LSMDao(dir.toFile(), config)) {
+            // The tables must be of the same size to be compacted together, so the records are counted
+            // until the first memtable switch and the last memtable is left full to be flushed on close
+            long perTable = -1;
+            long previous = 0;
+            for (long written = 0; perTable < 0 || written < perTable * tables; written++) {
+                random.nextBytes(key);
+                random.nextBytes(value);
+                dao.upsert(ByteBuffer.wrap(key), ByteBuffer.wrap(value));
+                final long size = dao.memTableSize();
+                if (perTable < 0 && size < previous) {
+                    perTable = written;
+                }
+                previous = size;
+            }
+        }
+    }
+
+    @Benchmark
+    public void compact() throws IOException, InterruptedException {
+        final Config config =
+                Config.builder()
+                        .flushThreshold(flushThreshold)
+                        .compactionThresholds(2, tables)
+                        .build();
+        try (LSMDao dao = new LSMDao(dir.toFile(), config)) {
+            final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(TIMEOUT_MINUTES);
+            while (dao.tables().size() > 1) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException("Compaction didn't finish, tables left: " + dao.tables().size());
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.mail.polis.tuzhms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the keys differing in the last byte only, i.e. the worst case of a lookup:
+ * the signed byte loop {@link Bytes#compare} used to be, the word-wise {@link Bytes#compare}
+ * and {@link ByteBuffer#compareTo(ByteBuffer)}.
+ * The direct buffer is in the native order like the memtable arena, the other key is on the heap
+ * like the keys of the requests.
+ *
+ * @author tuzhms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompareBenchmark {
+    @Param({"16", "4096"})
+    private int size;
+
+    @Param({"heap", "direct"})
+    private String buffer;
+
+    private ByteBuffer left;
+    private ByteBuffer right;
+
+    @Setup
+    public void setup() {
+        final byte[] key = new byte[size];
+        new Random(1).nextBytes(key);
+        left = "direct".equals(buffer)
+                ? ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()).put(key).flip()
+                : ByteBuffer.wrap(key.clone());
+        key[size - 1]++;
+        right = ByteBuffer.wrap(key);
+    }
+
+    @Benchmark
+    public int bytewise() {
+        final int length = Math.min(left.remaining(), right.remaining());
+        for (int i = 0; i < length; i++) {
+            final int cmp = Byte.compare(left.get(i), right.get(i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(left.remaining(), right.remaining());
+    }
+
+    @Benchmark
+    public int wordwise() {
+        return Bytes.compare(left, 0, left.remaining(), right, 0, right.remaining());
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return left.compareTo(right);
+    }
+}
@@ -0,0 +1,95 @@
+package ru.mail.polis.tuzhms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a full memtable of random records to a table, the memtable is refilled before every flush.
+ *
+ * @author tuzhms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FlushBenchmark {
+    @Param({"16"})
+    private int keyLength;
+
+    @Param({"128", "1024"})
+    private int valueLength;
+
+    @Param({"8388608"})
+    private int flushThreshold;
+
+    @Param({"NONE", "LZ"})
+    private Config.Compression compression;
+
+    private final Random random = new Random(1);
+    private Path dir;
+    private Config config;
+    private MemTable memTable;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("lsm-bench");
+        config = Config.builder()
+                .flushThreshold(flushThreshold)
+                .compression(compression)
+                .build();
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        memTable = new MemTable(flushThreshold);
+        final byte[] key = new byte[keyLength];
+        final byte[] value = new byte[valueLength];
+        do {
+            random.nextBytes(key);
+            random.nextBytes(value);
+        } while (memTable.put(ByteBuffer.wrap(key), ByteBuffer.wrap(value)));
+    }
+
+    @Benchmark
+    public void flush() throws IOException {
+        SSTable.write(
+                dir.resolve("1.sst"),
+                dir.resolve("1.tmp"),
+                config,
+                1L,
+                0,
+                memTable.size(),
+                memTable.iterator(ByteBuffer.allocate(0)),
+                memTable::rangeTombstones);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() throws IOException {
+        Files.deleteIfExists(dir.resolve("1.sst"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(dir);
+    }
+}
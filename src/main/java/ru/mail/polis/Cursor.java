@@ -0,0 +1,50 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Low-level forward cursor over the records of {@link DAO} in <b>ascending</b> order of keys.
+ *
+ * <p>Unlike {@link Record}, the key and the value are returned as read-only views which may be reused
+ * by the cursor, so they are valid until the cursor moves and must be copied to be kept.
+ * This way a scan doesn't need to allocate anything per record.
+ * The cursor is not positioned until the first {@link #seek(ByteBuffer)}.
+ *
+ * @author tuzhms
+ */
+public interface Cursor {
+    /**
+     * Moves to the first record with the key not less than the given one.
+     */
+    void seek(@NotNull ByteBuffer key);
+
+    /**
+     * Whether the cursor points to a record.
+     */
+    boolean valid();
+
+    /**
+     * Moves to the next record.
+     *
+     * @throws java.util.NoSuchElementException if the cursor is not {@link #valid()}
+     */
+    void next();
+
+    /**
+     * Returns the key of the current record valid until the cursor moves.
+     *
+     * @throws java.util.NoSuchElementException if the cursor is not {@link #valid()}
+     */
+    @NotNull
+    ByteBuffer key();
+
+    /**
+     * Returns the value of the current record valid until the cursor moves.
+     *
+     * @throws java.util.NoSuchElementException if the cursor is not {@link #valid()}
+     */
+    @NotNull
+    ByteBuffer value();
+}
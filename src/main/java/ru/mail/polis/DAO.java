@@ -22,7 +22,11 @@ import org.jetbrains.annotations.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -64,6 +68,54 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides not positioned {@link Cursor} over {@link Record}s.
+     * N.B. The default implementation allocates a {@link Record} per step,
+     * implementations are encouraged to return views of their memory instead.
+     */
+    @NotNull
+    default Cursor cursor() throws IOException {
+        return new IteratorCursor(this);
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
+     * in <b>descending</b> order according to {@link Record#compareTo(Record)}.
+     * N.B. The default implementation buffers all the preceding records,
+     * implementations are encouraged to scan backwards instead.
+     */
+    @NotNull
+    default Iterator<Record> descendingIterator(@NotNull ByteBuffer from) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        final Iterator<Record> iter = iterator(ByteBuffer.allocate(0));
+        while (iter.hasNext()) {
+            final Record record = iter.next();
+            if (record.getKey().compareTo(from) > 0) {
+                break;
+            }
+            records.add(record);
+        }
+        Collections.reverse(records);
+        return records.iterator();
+    }
+
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>descending</b> order according to {@link Record#compareTo(Record)},
+     * i.e. the records of {@link #range(ByteBuffer, ByteBuffer)} in reverse.
+     * N.B. The default implementation buffers the whole range,
+     * implementations are encouraged to scan backwards instead.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        range(from, to).forEachRemaining(records::add);
+        Collections.reverse(records);
+        return records.iterator();
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -95,4 +147,47 @@ public interface DAO extends Closeable {
      * Removes value by given key.
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Applies all the operations of the batch in order.
+     * N.B. The default implementation applies the operations one by one,
+     * implementations are encouraged to apply the batch atomically at the cost of a single write.
+     */
+    default void write(@NotNull WriteBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            if (value == null) {
+                remove(batch.key(i));
+            } else {
+                upsert(batch.key(i), value);
+            }
+        }
+    }
+
+    /**
+     * Removes values by the keys from "from" (inclusive) until "to" (exclusive).
+     * N.B. The default implementation removes the keys one by one,
+     * implementations are encouraged to store a single range tombstone instead.
+     */
+    default void removeRange(
+            @NotNull ByteBuffer from,
+            @NotNull ByteBuffer to) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final Iterator<Record> records = range(from, to);
+        while (records.hasNext()) {
+            keys.add(records.next().getKey());
+        }
+        for (final ByteBuffer key : keys) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Returns the implementation specific counters keyed by their names.
+     * N.B. The default implementation has no counters.
+     */
+    @NotNull
+    default Map<String, Number> stats() {
+        return Map.of();
+    }
 }
@@ -17,6 +17,8 @@
 package ru.mail.polis;
 
 import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.tuzhms.Config;
+import ru.mail.polis.tuzhms.LSMDao;
 
 import java.io.File;
 import java.io.IOException;
@@ -41,6 +43,20 @@ public final class DAOFactory {
      */
     @NotNull
     static DAO create(@NotNull final File data) throws IOException {
+        return create(data, Config.DEFAULT);
+    }
+
+    /**
+     * Construct a {@link DAO} instance with custom settings.
+     *
+     * @param data   local disk folder to persist the data to
+     * @param config storage settings
+     * @return a storage instance
+     */
+    @NotNull
+    static DAO create(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
         if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
@@ -53,7 +69,6 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        // TODO: Implement me
-        throw new UnsupportedOperationException("Implement me!");
+        return new LSMDao(data, config);
     }
 }
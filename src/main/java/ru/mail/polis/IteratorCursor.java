@@ -0,0 +1,67 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link Cursor} on top of {@link DAO#iterator(ByteBuffer)} allocating a {@link Record} per step.
+ *
+ * @author tuzhms
+ */
+final class IteratorCursor implements Cursor {
+    private final DAO dao;
+    private Iterator<Record> records = Iters.empty();
+    @Nullable
+    private Record current;
+
+    IteratorCursor(@NotNull final DAO dao) {
+        this.dao = dao;
+    }
+
+    @Override
+    public void seek(@NotNull final ByteBuffer key) {
+        try {
+            records = dao.iterator(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't seek", e);
+        }
+        current = records.hasNext() ? records.next() : null;
+    }
+
+    @Override
+    public boolean valid() {
+        return current != null;
+    }
+
+    @Override
+    public void next() {
+        check();
+        current = records.hasNext() ? records.next() : null;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        return check().getKey();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        return check().getValue();
+    }
+
+    @NotNull
+    private Record check() {
+        if (current == null) {
+            throw new NoSuchElementException("Cursor is not positioned at a record");
+        }
+        return current;
+    }
+}
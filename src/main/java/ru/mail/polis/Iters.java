@@ -3,9 +3,12 @@ package ru.mail.polis;
 import com.google.common.base.Functions;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Utility methods for iterators.
@@ -41,6 +44,15 @@ public final class Iters {
         return new UntilIterator<>(iter, until);
     }
 
+    /**
+     * Limits the descending iterator with the given element (inclusive).
+     */
+    public static <E extends Comparable<E>> Iterator<E> downTo(
+            @NotNull final Iterator<E> iter,
+            @NotNull final E downTo) {
+        return new DownToIterator<>(iter, downTo);
+    }
+
     public static <E> Iterator<E> collapseEquals(
             @NotNull final Iterator<E> iter,
             @NotNull final Function<E, ?> byKey) {
@@ -51,6 +63,26 @@ public final class Iters {
         return new CollapseEqualsIterator<>(iter);
     }
 
+    /**
+     * Merges sorted iterators into a sorted iterator of distinct elements.
+     * Iterators are given from the highest priority to the lowest one: of equal elements
+     * only the one from the iterator with the least index is returned, e.g. the newest version.
+     * The winners matching {@code dead} predicate (e.g. tombstones) are dropped.
+     * Each step costs O(log N) comparisons for N iterators.
+     */
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<? extends E>> iters,
+            @NotNull final Comparator<? super E> comparator,
+            @NotNull final Predicate<? super E> dead) {
+        return new MergeIterator<>(iters, comparator, dead);
+    }
+
+    public static <E> Iterator<E> merge(
+            @NotNull final List<? extends Iterator<? extends E>> iters,
+            @NotNull final Comparator<? super E> comparator) {
+        return new MergeIterator<>(iters, comparator, e -> false);
+    }
+
     private static class UntilIterator<E extends Comparable<E>> implements Iterator<E> {
         private final Iterator<E> iter;
         private final E until;
@@ -80,6 +112,35 @@ public final class Iters {
         }
     }
 
+    private static class DownToIterator<E extends Comparable<E>> implements Iterator<E> {
+        private final Iterator<E> iter;
+        private final E downTo;
+
+        private E next;
+
+        DownToIterator(
+                @NotNull final Iterator<E> iter,
+                @NotNull final E downTo) {
+            this.iter = iter;
+            this.downTo = downTo;
+            this.next = iter.hasNext() ? iter.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && next.compareTo(downTo) >= 0;
+        }
+
+        @Override
+        public E next() {
+            assert hasNext();
+
+            final E result = this.next;
+            this.next = iter.hasNext() ? iter.next() : null;
+            return result;
+        }
+    }
+
     private static class CollapseEqualsIterator<E> implements Iterator<E> {
         private final Iterator<E> iter;
         private final Function<E, ?> keyExtractor;
@@ -124,4 +185,113 @@ public final class Iters {
         }
     }
 
+    /**
+     * Binary heap of iterator indices ordered by their current heads and then by the indices.
+     */
+    private static class MergeIterator<E> implements Iterator<E> {
+        private final Iterator<? extends E>[] iters;
+        private final Comparator<? super E> comparator;
+        private final Predicate<? super E> dead;
+        private final E[] heads;
+        private final int[] heap;
+        private int size;
+
+        private E next;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        MergeIterator(
+                @NotNull final List<? extends Iterator<? extends E>> iters,
+                @NotNull final Comparator<? super E> comparator,
+                @NotNull final Predicate<? super E> dead) {
+            this.iters = iters.toArray(new Iterator[0]);
+            this.comparator = comparator;
+            this.dead = dead;
+            this.heads = (E[]) new Object[this.iters.length];
+            this.heap = new int[this.iters.length];
+            for (int i = 0; i < this.iters.length; i++) {
+                if (this.iters[i].hasNext()) {
+                    heads[i] = this.iters[i].next();
+                    heap[size++] = i;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            this.next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more elements");
+            }
+
+            final E result = next;
+            next = advance();
+            return result;
+        }
+
+        private E advance() {
+            while (size > 0) {
+                final E winner = heads[heap[0]];
+
+                // Skip the same element in the iterators with lower priority
+                step();
+                while (size > 0 && comparator.compare(heads[heap[0]], winner) == 0) {
+                    step();
+                }
+
+                if (!dead.test(winner)) {
+                    return winner;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Moves the top iterator to its next element.
+         */
+        private void step() {
+            final int top = heap[0];
+            if (iters[top].hasNext()) {
+                heads[top] = iters[top].next();
+            } else {
+                heads[top] = null;
+                heap[0] = heap[--size];
+            }
+            siftDown(0);
+        }
+
+        private void siftDown(final int from) {
+            int i = from;
+            final int item = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!less(heap[child], item)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = item;
+        }
+
+        private boolean less(
+                final int left,
+                final int right) {
+            final int cmp = comparator.compare(heads[left], heads[right]);
+            return cmp < 0 || cmp == 0 && left < right;
+        }
+    }
 }
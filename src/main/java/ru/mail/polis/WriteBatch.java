@@ -0,0 +1,75 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upserts and removes to be applied by {@link DAO#write(WriteBatch)} together in the order they were added.
+ *
+ * <p>The batch keeps views of the given buffers, so their contents must not change until the batch is written.
+ *
+ * @author tuzhms
+ */
+public final class WriteBatch {
+    private final List<ByteBuffer> keys = new ArrayList<>();
+    private final List<ByteBuffer> values = new ArrayList<>();
+
+    /**
+     * Adds insertion or update of the value by the key.
+     */
+    @NotNull
+    public WriteBatch upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) {
+        keys.add(key.duplicate());
+        values.add(value.duplicate());
+        return this;
+    }
+
+    /**
+     * Adds removal of the value by the key.
+     */
+    @NotNull
+    public WriteBatch remove(@NotNull final ByteBuffer key) {
+        keys.add(key.duplicate());
+        values.add(null);
+        return this;
+    }
+
+    /**
+     * Number of the operations.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    @NotNull
+    public ByteBuffer key(final int index) {
+        return keys.get(index).duplicate();
+    }
+
+    /**
+     * Returns the value of the operation or {@code null} if it is a removal.
+     */
+    @Nullable
+    public ByteBuffer value(final int index) {
+        final ByteBuffer value = values.get(index);
+        return value == null ? null : value.duplicate();
+    }
+
+    /**
+     * Removes all the operations to reuse the batch.
+     */
+    public void clear() {
+        keys.clear();
+        values.clear();
+    }
+}
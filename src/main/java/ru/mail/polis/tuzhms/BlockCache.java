@@ -0,0 +1,157 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Table data blocks shared by all the tables of a storage and kept in direct memory.
+ *
+ * <p>Every table owns an array of slots indexed by block number, so a hit is a single volatile read
+ * without allocations and locks. Blocks are evicted with the CLOCK algorithm: a hit marks the block
+ * as referenced and the hand sweeping the blocks in insertion order gives the referenced ones
+ * a second chance while evicting the rest. Every block is a separate direct buffer, so the views
+ * of an evicted block stay valid until they are collected.
+ *
+ * @author tuzhms
+ */
+final class BlockCache {
+    private final long capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Guarded by this
+    private final List<Entry> clock = new ArrayList<>();
+    private int hand;
+    private long size;
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacity total size of the cached blocks in bytes
+     */
+    BlockCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates the slots for the blocks of a table.
+     */
+    @NotNull
+    static AtomicReferenceArray<Entry> slots(final int blocks) {
+        return new AtomicReferenceArray<>(blocks);
+    }
+
+    /**
+     * Returns the cached block or {@code null} if it should be {@link #put} into the cache.
+     */
+    @Nullable
+    ByteBuffer get(
+            @NotNull final AtomicReferenceArray<Entry> slots,
+            final int block) {
+        final Entry entry = slots.get(block);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.block;
+    }
+
+    /**
+     * Copies the block into the cache evicting the other blocks if needed.
+     *
+     * @return the cached copy or the block itself if it is too big to be cached
+     */
+    @NotNull
+    ByteBuffer put(
+            @NotNull final AtomicReferenceArray<Entry> slots,
+            final int block,
+            @NotNull final ByteBuffer source) {
+        final int bytes = source.remaining();
+        if (bytes > capacity) {
+            return source;
+        }
+
+        final ByteBuffer copy = ByteBuffer.allocateDirect(bytes).put(source.duplicate()).flip();
+        final Entry entry = new Entry(copy, slots, block);
+        if (!slots.compareAndSet(block, null, entry)) {
+            // Loaded concurrently
+            final Entry existing = slots.get(block);
+            return existing == null ? copy : existing.block;
+        }
+        synchronized (this) {
+            clock.add(entry);
+            size += bytes;
+            while (size > capacity) {
+                evict();
+            }
+        }
+        return copy;
+    }
+
+    @NotNull
+    CacheStats stats() {
+        final long cached;
+        synchronized (this) {
+            cached = size;
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), cached, capacity);
+    }
+
+    /**
+     * Moves the hand by a single block: clears the reference mark or evicts the block.
+     */
+    private void evict() {
+        if (hand >= clock.size()) {
+            hand = 0;
+        }
+        final Entry entry = clock.get(hand);
+        if (entry.referenced) {
+            entry.referenced = false;
+            hand++;
+            return;
+        }
+
+        // The last block takes the place of the evicted one to be checked next
+        final Entry last = clock.remove(clock.size() - 1);
+        if (hand < clock.size()) {
+            clock.set(hand, last);
+        }
+        size -= entry.block.capacity();
+        entry.slots.compareAndSet(entry.index, entry, null);
+        evictions.increment();
+    }
+
+    /**
+     * Cached block with its slot.
+     */
+    static final class Entry {
+        private final ByteBuffer block;
+        private final AtomicReferenceArray<Entry> slots;
+        private final int index;
+        /**
+         * New blocks are referenced not to be evicted by the next move of the hand.
+         */
+        private volatile boolean referenced = true;
+
+        Entry(
+                @NotNull final ByteBuffer block,
+                @NotNull final AtomicReferenceArray<Entry> slots,
+                final int index) {
+            this.block = block;
+            this.slots = slots;
+            this.index = index;
+        }
+    }
+}
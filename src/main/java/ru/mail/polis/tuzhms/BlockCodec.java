@@ -0,0 +1,86 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of table data blocks.
+ *
+ * <p>The identifier of the codec is stored in the header of every block, so the tables written
+ * with different codecs are read the same way. A block which doesn't shrink is stored as is.
+ *
+ * @author tuzhms
+ */
+interface BlockCodec {
+    byte NONE = 0;
+    byte LZ = 1;
+
+    /**
+     * Creates the codec to write the new tables with.
+     * Codecs may keep the state between calls, so they must not be shared by the writers.
+     */
+    @NotNull
+    static BlockCodec create(@NotNull final Config.Compression compression) {
+        switch (compression) {
+            case NONE:
+                return new NoneCodec();
+            case LZ:
+                return new LzCodec();
+            default:
+                throw new IllegalArgumentException("Unsupported compression: " + compression);
+        }
+    }
+
+    /**
+     * Restores the block stored by the codec with the given identifier.
+     *
+     * @param payload stored bytes
+     * @param length  length of the restored block
+     * @return the restored block, which may be a view of the payload
+     */
+    @NotNull
+    static ByteBuffer decode(
+            final byte id,
+            @NotNull final ByteBuffer payload,
+            final int length) throws IOException {
+        switch (id) {
+            case NONE:
+                if (payload.remaining() != length) {
+                    throw new IOException("Block length mismatch: " + payload.remaining() + " != " + length);
+                }
+                return payload;
+            case LZ:
+                final byte[] block = new byte[length];
+                new LzCodec().decompress(payload, block);
+                return ByteBuffer.wrap(block);
+            default:
+                throw new IOException("Unknown block codec: " + id);
+        }
+    }
+
+    /**
+     * Identifier stored in the block header.
+     */
+    byte getId();
+
+    /**
+     * Compresses {@code src[0, length)} into {@code dst}.
+     *
+     * @return compressed length or {@code -1} if the result doesn't fit into {@code dst}
+     */
+    int compress(
+            @NotNull byte[] src,
+            int length,
+            @NotNull byte[] dst);
+
+    /**
+     * Decompresses the remaining bytes of {@code src} filling {@code dst} completely.
+     *
+     * @throws IOException if the data is corrupted
+     */
+    void decompress(
+            @NotNull ByteBuffer src,
+            @NotNull byte[] dst) throws IOException;
+}
@@ -0,0 +1,353 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cursor over the cells of a decoded table data block.
+ *
+ * <p>Block layout: {@code [cells...][restart offsets...][restart count]}. Every cell is
+ * {@code [shared][unshared][value length + 1 or 0 for tombstone][key suffix][value bytes]},
+ * or {@code [shared][unshared][-1][key suffix][value log pointer]} for a value stored in the {@link ValueLog},
+ * where the key is the first {@code shared} bytes of the previous key followed by the suffix
+ * and the lengths are {@link Bytes#putVarInt variable-length integers}. Every few cells
+ * the key is stored as a whole, such cells are the restart points with their offsets listed
+ * at the end of the block. A seek is a binary search over the restart keys compared right in the block
+ * followed by a scan of the keys restored into the reusable buffer.
+ *
+ * <p>Keys can't be restored backwards, so stepping back decodes the cells from the preceding
+ * restart point once and keeps their positions and keys: the following steps back within the same
+ * restart interval are replayed from the saved state, and a reverse scan costs as much as a forward one.
+ *
+ * @author tuzhms
+ */
+final class BlockCursor {
+    private static final int SAVED_POINTER = -2;
+
+    private ByteBuffer block;
+    /**
+     * Offset of the block within {@link #block}, the offsets of the cells are absolute.
+     */
+    private int start;
+    private int restarts;
+    private int restartCount;
+    /**
+     * Read-only view of the block for the values, created on demand.
+     */
+    @Nullable
+    private ByteBuffer values;
+
+    private byte[] key = new byte[32];
+    private ByteBuffer keyView = ByteBuffer.wrap(key);
+    /**
+     * Read-only view of the key buffer for the callers, created on demand.
+     */
+    @Nullable
+    private ByteBuffer keys;
+    private int keyLength;
+    /**
+     * Offset of the current cell or {@link #restarts} if the cursor is past the last cell.
+     */
+    private int offset;
+    private int next;
+    private int valueOffset;
+    private int valueLength;
+    private boolean pointer;
+
+    /**
+     * Cells of the restart interval decoded by {@link #previous()}: {@code [offset][value offset]
+     * [value length or SAVED_POINTER][key end]} each with the keys concatenated in {@link #segmentKeys}.
+     */
+    private int[] segment = new int[4 * 16];
+    private byte[] segmentKeys = new byte[256];
+    /**
+     * Index of the current cell in the saved interval, {@code 0} if there is nothing to replay.
+     */
+    private int segmentIndex;
+
+    /**
+     * Positions the cursor at the first cell of the block.
+     */
+    BlockCursor(@NotNull final ByteBuffer block) {
+        reset(block);
+    }
+
+    /**
+     * Moves the cursor to the first cell of another block reusing the buffers.
+     */
+    void reset(@NotNull final ByteBuffer block) {
+        reset(block, 0, block.limit());
+    }
+
+    /**
+     * Moves the cursor to the first cell of the block stored in the region {@code [start, end)} of the buffer,
+     * so the blocks of a mapping are read in place without the views of every block.
+     */
+    void reset(
+            @NotNull final ByteBuffer buffer,
+            final int start,
+            final int end) {
+        if (buffer != this.block) {
+            this.block = buffer;
+            this.values = null;
+        }
+        this.start = start;
+        this.restartCount = buffer.getInt(end - Integer.BYTES);
+        this.restarts = end - Integer.BYTES - restartCount * Integer.BYTES;
+        this.next = start;
+        advance();
+    }
+
+    /**
+     * Whether the cursor points to a cell.
+     */
+    boolean isValid() {
+        return offset < restarts;
+    }
+
+    /**
+     * Moves to the next cell.
+     */
+    void advance() {
+        segmentIndex = 0;
+        decode();
+    }
+
+    /**
+     * Moves to the previous cell or past the last cell if the current one is the first.
+     * Moves to the last cell if the cursor is past the last cell.
+     */
+    void previous() {
+        if (segmentIndex > 0) {
+            restore(--segmentIndex);
+            return;
+        }
+
+        // The last restart point before the current cell
+        final int current = offset;
+        int left = 0;
+        int right = restartCount - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (restart(mid) < current) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        if (right < 0) {
+            next = restarts;
+            decode();
+            return;
+        }
+
+        next = restart(right);
+        int count = 0;
+        do {
+            decode();
+            save(count++);
+        } while (next < current);
+        segmentIndex = count - 1;
+    }
+
+    private void decode() {
+        offset = next;
+        if (offset >= restarts) {
+            offset = restarts;
+            return;
+        }
+
+        int position = offset;
+        final int shared = Bytes.getVarInt(block, position);
+        position += Bytes.varIntSize(shared);
+        final int unshared = Bytes.getVarInt(block, position);
+        position += Bytes.varIntSize(unshared);
+        final int value = Bytes.getVarInt(block, position);
+        position += Bytes.varIntSize(value);
+
+        keyLength = shared + unshared;
+        if (keyLength > key.length) {
+            key = Arrays.copyOf(key, Math.max(keyLength, key.length * 2));
+            keyView = ByteBuffer.wrap(key);
+            keys = null;
+        }
+        for (int i = 0; i < unshared; i++) {
+            key[shared + i] = block.get(position + i);
+        }
+        valueOffset = position + unshared;
+        pointer = value == SSTable.POINTER;
+        valueLength = pointer ? ValueLog.POINTER : value - 1;
+        next = valueOffset + Math.max(valueLength, 0);
+    }
+
+    /**
+     * Moves to the first cell not less than the given key or past the last cell.
+     */
+    void seek(@NotNull final ByteBuffer target) {
+        // The last restart point with the key less than the target
+        int left = 0;
+        int right = restartCount - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (compareRestart(target, mid) > 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        next = right < 0 ? start : restart(right);
+        advance();
+        while (isValid() && compareKey(target) > 0) {
+            advance();
+        }
+    }
+
+    /**
+     * Moves to the last cell not greater than the given key or past the last cell if there is no such cell.
+     */
+    void seekFloor(@NotNull final ByteBuffer target) {
+        seek(target);
+        if (!isValid() || compareKey(target) < 0) {
+            previous();
+        }
+    }
+
+    /**
+     * Moves to the last cell of the block.
+     */
+    void last() {
+        segmentIndex = 0;
+        offset = restarts;
+        previous();
+    }
+
+    /**
+     * Compares the given key with the key of the current cell.
+     */
+    int compareKey(@NotNull final ByteBuffer target) {
+        return Bytes.compare(target, keyView, 0, keyLength);
+    }
+
+    boolean isTombstone() {
+        return valueLength == SSTable.TOMBSTONE;
+    }
+
+    /**
+     * Whether the value of the current cell is stored in the {@link ValueLog}
+     * and {@link #valueView()} returns the pointer.
+     */
+    boolean isPointer() {
+        return pointer;
+    }
+
+    /**
+     * Returns a copy of the key of the current cell.
+     */
+    @NotNull
+    ByteBuffer key() {
+        return ByteBuffer.wrap(Arrays.copyOf(key, keyLength)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the read-only view of the key of the current cell valid until the cursor moves.
+     */
+    @NotNull
+    ByteBuffer keyView() {
+        if (keys == null) {
+            keys = keyView.asReadOnlyBuffer();
+        }
+        keys.limit(keyLength).position(0);
+        return keys;
+    }
+
+    /**
+     * Returns the read-only view of the value of the current cell valid until the cursor moves.
+     */
+    @NotNull
+    ByteBuffer valueView() {
+        if (values == null) {
+            values = block.asReadOnlyBuffer();
+        }
+        values.limit(valueOffset + valueLength).position(valueOffset);
+        return values;
+    }
+
+    /**
+     * Returns the read-only view of the value of the current cell which stays valid after the cursor moves.
+     */
+    @NotNull
+    ByteBuffer value() {
+        return Bytes.slice(block, valueOffset, valueLength);
+    }
+
+    /**
+     * Returns the current cell with the copy of the key and the read-only view of the value.
+     */
+    @NotNull
+    Cell cell() {
+        if (isTombstone()) {
+            return new Cell(key(), null);
+        }
+        if (pointer) {
+            return Cell.pointer(key(), value());
+        }
+        return new Cell(key(), value());
+    }
+
+    /**
+     * Saves the state of the current cell as the given cell of the restart interval.
+     */
+    private void save(final int index) {
+        final int entry = index * 4;
+        if (entry + 4 > segment.length) {
+            segment = Arrays.copyOf(segment, segment.length * 2);
+        }
+        final int keyStart = index == 0 ? 0 : segment[entry - 1];
+        if (keyStart + keyLength > segmentKeys.length) {
+            segmentKeys = Arrays.copyOf(segmentKeys, Math.max(keyStart + keyLength, segmentKeys.length * 2));
+        }
+        System.arraycopy(key, 0, segmentKeys, keyStart, keyLength);
+        segment[entry] = offset;
+        segment[entry + 1] = valueOffset;
+        segment[entry + 2] = pointer ? SAVED_POINTER : valueLength;
+        segment[entry + 3] = keyStart + keyLength;
+    }
+
+    /**
+     * Restores the state of the given cell of the saved restart interval.
+     */
+    private void restore(final int index) {
+        final int entry = index * 4;
+        final int keyStart = index == 0 ? 0 : segment[entry - 1];
+        keyLength = segment[entry + 3] - keyStart;
+        System.arraycopy(segmentKeys, keyStart, key, 0, keyLength);
+        offset = segment[entry];
+        valueOffset = segment[entry + 1];
+        pointer = segment[entry + 2] == SAVED_POINTER;
+        valueLength = pointer ? ValueLog.POINTER : segment[entry + 2];
+        next = valueOffset + Math.max(valueLength, 0);
+    }
+
+    private int restart(final int index) {
+        return start + block.getInt(restarts + index * Integer.BYTES);
+    }
+
+    /**
+     * Compares the given key with the whole key stored at the restart point.
+     */
+    private int compareRestart(
+            @NotNull final ByteBuffer target,
+            final int index) {
+        int position = restart(index);
+        // Nothing is shared at a restart point
+        position++;
+        final int length = Bytes.getVarInt(block, position);
+        position += Bytes.varIntSize(length);
+        final int value = Bytes.getVarInt(block, position);
+        position += Bytes.varIntSize(value);
+        return Bytes.compare(target, block, position, length);
+    }
+}
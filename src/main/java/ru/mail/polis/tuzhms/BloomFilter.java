@@ -0,0 +1,96 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over the keys of a table.
+ *
+ * <p>Bits are probed with double hashing of the 64-bit {@link Bytes#hash} of the key,
+ * so the filter of a mapped table is queried right in the mapping without any allocations.
+ *
+ * @author tuzhms
+ */
+final class BloomFilter {
+    private static final int MAX_HASHES = 30;
+
+    private final ByteBuffer bits;
+    private final long size;
+    private final int hashes;
+
+    /**
+     * Wraps existing filter bits.
+     *
+     * @param bits   filter bits, little bit first within each byte
+     * @param hashes number of probes per key
+     */
+    BloomFilter(
+            @NotNull final ByteBuffer bits,
+            final int hashes) {
+        this.bits = bits;
+        this.size = (long) bits.remaining() * Byte.SIZE;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Creates an empty filter for the expected number of keys.
+     */
+    @NotNull
+    static BloomFilter create(
+            final long keys,
+            final int bitsPerKey) {
+        final long bytes = Math.max(1L, (keys * bitsPerKey + Byte.SIZE - 1) / Byte.SIZE);
+        return new BloomFilter(
+                ByteBuffer.allocate(Math.toIntExact(bytes)),
+                hashes(bitsPerKey));
+    }
+
+    /**
+     * Optimal number of probes: {@code bitsPerKey * ln(2)}.
+     */
+    static int hashes(final int bitsPerKey) {
+        return Math.max(1, Math.min(MAX_HASHES, (int) Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Returns the filter bits to be persisted.
+     */
+    @NotNull
+    ByteBuffer getBits() {
+        return bits.duplicate();
+    }
+
+    void add(@NotNull final ByteBuffer key) {
+        final long hash = Bytes.hash(key, key.position(), key.remaining());
+        final long delta = (hash >>> 32) | (hash << 32);
+        long probe = hash;
+        for (int i = 0; i < hashes; i++) {
+            final long bit = Long.remainderUnsigned(probe, size);
+            final int index = bits.position() + (int) (bit >>> 3);
+            bits.put(index, (byte) (bits.get(index) | (1 << (bit & 7))));
+            probe += delta;
+        }
+    }
+
+    /**
+     * Returns {@code false} if the key was definitely not added to the filter.
+     */
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        final long hash = Bytes.hash(key, key.position(), key.remaining());
+        final long delta = (hash >>> 32) | (hash << 32);
+        long probe = hash;
+        for (int i = 0; i < hashes; i++) {
+            final long bit = Long.remainderUnsigned(probe, size);
+            if ((bits.get(bits.position() + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+            probe += delta;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Utility methods for comparing and copying raw key bytes without slicing buffers.
+ *
+ * @author tuzhms
+ */
+final class Bytes {
+    private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+    private static final long HASH_MULTIPLIER = 0x87C37B91114253D5L;
+
+    private Bytes() {
+        // Not instantiable
+    }
+
+    /**
+     * Compares two byte regions the same way as {@link ByteBuffer#compareTo(ByteBuffer)} does,
+     * i.e. lexicographically by <b>signed</b> bytes and then by length.
+     * Writable heap buffers are compared with the vectorized {@link Arrays#mismatch}, the other ones
+     * by 8-byte words read in big-endian order regardless of the buffer order, so the first differing word
+     * points to the first differing byte.
+     */
+    static int compare(
+            @NotNull final ByteBuffer left,
+            final int leftOffset,
+            final int leftLength,
+            @NotNull final ByteBuffer right,
+            final int rightOffset,
+            final int rightLength) {
+        if (left.hasArray() && right.hasArray()) {
+            final int leftStart = left.arrayOffset() + leftOffset;
+            final int rightStart = right.arrayOffset() + rightOffset;
+            final int mismatch = Arrays.mismatch(
+                    left.array(), leftStart, leftStart + leftLength,
+                    right.array(), rightStart, rightStart + rightLength);
+            if (mismatch >= 0 && mismatch < leftLength && mismatch < rightLength) {
+                return Byte.compare(left.array()[leftStart + mismatch], right.array()[rightStart + mismatch]);
+            }
+            return Integer.compare(leftLength, rightLength);
+        }
+
+        final int length = Math.min(leftLength, rightLength);
+        final boolean leftBigEndian = left.order() == ByteOrder.BIG_ENDIAN;
+        final boolean rightBigEndian = right.order() == ByteOrder.BIG_ENDIAN;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            final long leftWord = left.getLong(leftOffset + i);
+            final long rightWord = right.getLong(rightOffset + i);
+            final long a = leftBigEndian ? leftWord : Long.reverseBytes(leftWord);
+            final long b = rightBigEndian ? rightWord : Long.reverseBytes(rightWord);
+            if (a != b) {
+                final int shift = Long.SIZE - Byte.SIZE - (Long.numberOfLeadingZeros(a ^ b) & -Byte.SIZE);
+                return Byte.compare((byte) (a >>> shift), (byte) (b >>> shift));
+            }
+        }
+        for (; i < length; i++) {
+            final int cmp = Byte.compare(left.get(leftOffset + i), right.get(rightOffset + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(leftLength, rightLength);
+    }
+
+    /**
+     * Compares remaining bytes of the key with the given region of the buffer.
+     */
+    static int compare(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        return compare(key, key.position(), key.remaining(), buffer, offset, length);
+    }
+
+    /**
+     * Computes 64-bit hash of the byte region independent of the buffer byte order.
+     * The result is persisted in filters, so the function must never change.
+     */
+    static long hash(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        long h = HASH_SEED ^ (length * HASH_MULTIPLIER);
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            final long word = buffer.getLong(offset + i);
+            h = (h ^ mix(bigEndian ? word : Long.reverseBytes(word))) * HASH_MULTIPLIER;
+        }
+        if (i < length) {
+            long tail = 0;
+            for (; i < length; i++) {
+                tail = (tail << Byte.SIZE) | (buffer.get(offset + i) & 0xFF);
+            }
+            h = (h ^ mix(tail)) * HASH_MULTIPLIER;
+        }
+        return mix(h);
+    }
+
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Writes the non-negative value with 7 bits per byte, least significant first,
+     * the high bit of a byte marks that more bytes follow.
+     */
+    static void putVarInt(
+            @NotNull final ByteBuffer buffer,
+            final int value) {
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            buffer.put((byte) (rest & 0x7F | 0x80));
+            rest >>>= 7;
+        }
+        buffer.put((byte) rest);
+    }
+
+    /**
+     * Reads the value written by {@link #putVarInt(ByteBuffer, int)} at the given offset.
+     */
+    static int getVarInt(
+            @NotNull final ByteBuffer buffer,
+            final int offset) {
+        int result = 0;
+        int shift = 0;
+        int i = offset;
+        byte b;
+        do {
+            b = buffer.get(i++);
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    /**
+     * Number of bytes taken by the value written by {@link #putVarInt(ByteBuffer, int)}.
+     */
+    static int varIntSize(final int value) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+
+    /**
+     * Copies remaining bytes of the source to the target starting at the given offset
+     * without changing positions of both buffers.
+     */
+    static void copy(
+            @NotNull final ByteBuffer source,
+            @NotNull final ByteBuffer target,
+            final int offset) {
+        final ByteBuffer dst = target.duplicate();
+        dst.position(offset);
+        dst.put(source.duplicate());
+    }
+
+    /**
+     * Returns read-only view of the given region of the buffer.
+     */
+    @NotNull
+    static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final ByteBuffer result = buffer.asReadOnlyBuffer();
+        result.limit(offset + length);
+        result.position(offset);
+        return result.slice();
+    }
+}
@@ -0,0 +1,76 @@
+package ru.mail.polis.tuzhms;
+
+/**
+ * Snapshot of block cache counters.
+ *
+ * @author tuzhms
+ */
+public final class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long size;
+    private final long capacity;
+
+    CacheStats(
+            final long hits,
+            final long misses,
+            final long evictions,
+            final long size,
+            final long capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Block reads served by the cache.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Block reads which had to load the block from the table file.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Blocks evicted to make room for the new ones.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Total size of the cached blocks in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Share of block reads served by the cache.
+     */
+    public double getHitRate() {
+        final long reads = hits + misses;
+        return reads == 0 ? 0.0 : (double) hits / reads;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hits
+                + ", misses=" + misses
+                + ", evictions=" + evictions
+                + ", size=" + size
+                + ", capacity=" + capacity + '}';
+    }
+}
@@ -0,0 +1,84 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Entry of the storage: either a value or a tombstone.
+ * Tables may store a {@link ValueLog} pointer in place of a large value, such cells are returned
+ * only by the iterators which don't resolve the pointers.
+ *
+ * @author tuzhms
+ */
+final class Cell {
+    /**
+     * Orders cells by key.
+     */
+    static final Comparator<Cell> COMPARATOR = (left, right) -> left.key.compareTo(right.key);
+
+    private final ByteBuffer key;
+    @Nullable
+    private final ByteBuffer value;
+    private final boolean pointer;
+
+    Cell(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        this(key, value, false);
+    }
+
+    private Cell(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value,
+            final boolean pointer) {
+        this.key = key;
+        this.value = value;
+        this.pointer = pointer;
+    }
+
+    /**
+     * Creates the cell with the value stored in the {@link ValueLog}.
+     */
+    @NotNull
+    static Cell pointer(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer pointer) {
+        return new Cell(key, pointer, true);
+    }
+
+    @NotNull
+    ByteBuffer getKey() {
+        return key.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the value of the cell or the {@link ValueLog} pointer if the cell {@link #isPointer() is a pointer}.
+     *
+     * @throws IllegalStateException if the cell is a tombstone
+     */
+    @NotNull
+    ByteBuffer getValue() {
+        if (value == null) {
+            throw new IllegalStateException("Tombstone has no value");
+        }
+        return value.asReadOnlyBuffer();
+    }
+
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    boolean isPointer() {
+        return pointer;
+    }
+
+    /**
+     * Size of the key and the value in bytes.
+     */
+    int sizeInBytes() {
+        return key.remaining() + (value == null ? 0 : value.remaining());
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Forward cursor over the cells of a single source returning reusable views instead of {@link Cell}s.
+ * The views are valid until the cursor moves, the values are backed by immutable memory though.
+ *
+ * @author tuzhms
+ */
+interface CellCursor {
+    /**
+     * Moves to the first cell not less than the given key.
+     */
+    void seek(@NotNull ByteBuffer key);
+
+    boolean isValid();
+
+    /**
+     * Moves to the next cell, the cursor must be valid.
+     */
+    void next();
+
+    /**
+     * Returns the key of the current cell valid until the cursor moves.
+     */
+    @NotNull
+    ByteBuffer key();
+
+    boolean isTombstone();
+
+    /**
+     * Returns the value of the current cell valid until the cursor moves, the cell must not be a tombstone.
+     */
+    @NotNull
+    ByteBuffer value();
+}
@@ -0,0 +1,58 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Task of merging the tables picked by {@link CompactionStrategy}.
+ *
+ * @author tuzhms
+ */
+final class Compaction {
+    private final List<SSTable> inputs;
+    private final int level;
+    private final long tableSize;
+    private final boolean dropTombstones;
+
+    /**
+     * Creates the task.
+     *
+     * @param inputs         tables to merge ordered from the newest to the oldest
+     * @param level          level of the resulting tables
+     * @param tableSize      target size of a resulting table in bytes
+     * @param dropTombstones whether there is no older data under the inputs, so tombstones may be dropped
+     */
+    Compaction(
+            @NotNull final List<SSTable> inputs,
+            final int level,
+            final long tableSize,
+            final boolean dropTombstones) {
+        this.inputs = inputs;
+        this.level = level;
+        this.tableSize = tableSize;
+        this.dropTombstones = dropTombstones;
+    }
+
+    @NotNull
+    List<SSTable> getInputs() {
+        return inputs;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    long getTableSize() {
+        return tableSize;
+    }
+
+    boolean isDropTombstones() {
+        return dropTombstones;
+    }
+
+    @Override
+    public String toString() {
+        return inputs.size() + " tables to level " + level;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which tables {@link Compactor} should merge next.
+ *
+ * <p>Implementations are not thread-safe: {@link Compactor} calls them under its lock.
+ *
+ * @author tuzhms
+ */
+interface CompactionStrategy {
+    /**
+     * Picks the tables to merge.
+     *
+     * @param tables current tables
+     * @param busy   tables being merged by the other threads which must not be picked
+     * @return the task or {@code null} if there is nothing to do
+     */
+    @Nullable
+    Compaction pick(
+            @NotNull Tables tables,
+            @NotNull Set<SSTable> busy);
+
+    /**
+     * Estimates the bytes to be merged to bring the tables into the shape targeted by the strategy.
+     * Unlike {@link #pick}, may be called concurrently.
+     */
+    long pendingBytes(@NotNull Tables tables);
+
+    /**
+     * Picks the bottom table (see {@link Tables#isBottom(int)}) with the largest share of tombstones
+     * exceeding the ratio to be compacted alone dropping all the tombstones.
+     *
+     * @param ratio     minimum share of tombstones, {@code 0} not to pick anything
+     * @param tableSize target size of a resulting table in bytes
+     */
+    @Nullable
+    static Compaction pickTombstones(
+            @NotNull final Tables tables,
+            @NotNull final Set<SSTable> busy,
+            final double ratio,
+            final long tableSize) {
+        if (ratio <= 0.0) {
+            return null;
+        }
+        SSTable best = null;
+        double bestRatio = ratio;
+        for (int i = 0; i < tables.size(); i++) {
+            final SSTable table = tables.get(i);
+            final long tombstones = table.tombstones() + table.getRangeTombstones().size();
+            if (tombstones == 0 || !tables.isBottom(i) || busy.contains(table)) {
+                continue;
+            }
+            final double tableRatio = (double) tombstones / (table.size() + table.getRangeTombstones().size());
+            if (tableRatio >= bestRatio) {
+                best = table;
+                bestRatio = tableRatio;
+            }
+        }
+        return best == null ? null : new Compaction(List.of(best), best.getLevel(), tableSize, true);
+    }
+
+    @NotNull
+    static CompactionStrategy create(@NotNull final Config config) {
+        switch (config.getCompactionStyle()) {
+            case SIZE_TIERED:
+                return new SizeTieredStrategy(config);
+            case LEVELED:
+                return new LeveledStrategy(config);
+            default:
+                throw new IllegalArgumentException("Unsupported compaction style: " + config.getCompactionStyle());
+        }
+    }
+}
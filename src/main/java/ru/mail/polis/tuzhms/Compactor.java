@@ -0,0 +1,304 @@
+package ru.mail.polis.tuzhms;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Iters;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background compaction of {@link LSMDao} tables.
+ *
+ * <p>Tables picked by the configured {@link CompactionStrategy} are merged on a dedicated thread pool.
+ * The results take the place of the inputs in {@link Tables} atomically, so writers are never blocked by merging.
+ *
+ * @author tuzhms
+ */
+final class Compactor implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Compactor.class);
+
+    private static final int THROTTLE_CHUNK = 64 * 1024;
+
+    private final LSMDao dao;
+    private final int threads;
+    private final CompactionStrategy strategy;
+    @Nullable
+    private final RateLimiter rateLimiter;
+    @Nullable
+    private final ExecutorService executor;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * Whether {@link #schedule()} was called since a worker started to pick the tables.
+     */
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private final Set<SSTable> busy = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile boolean closed;
+
+    Compactor(
+            @NotNull final LSMDao dao,
+            @NotNull final Config config) {
+        this.dao = dao;
+        this.threads = config.getCompactionThreads();
+        this.strategy = CompactionStrategy.create(config);
+        this.rateLimiter =
+                config.getCompactionRateLimit() > 0
+                        ? RateLimiter.create(config.getCompactionRateLimit())
+                        : null;
+        this.executor =
+                threads > 0
+                        ? Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("lsm-compaction-%d")
+                                .setDaemon(true)
+                                .build())
+                        : null;
+    }
+
+    /**
+     * Checks for tables to compact in background.
+     */
+    void schedule() {
+        if (executor == null || closed) {
+            return;
+        }
+        requested.set(true);
+        if (pending.incrementAndGet() > threads) {
+            pending.decrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                requested.set(false);
+                try {
+                    compact();
+                } finally {
+                    pending.decrementAndGet();
+                }
+                // The check rejected while the last pick was returning is repeated
+                if (requested.get()) {
+                    schedule();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Estimates the bytes to be merged, {@code 0} if compaction is disabled.
+     */
+    long pendingBytes(@NotNull final Tables tables) {
+        return executor == null ? 0L : strategy.pendingBytes(tables);
+    }
+
+    /**
+     * Whether a compaction is running or scheduled.
+     */
+    boolean isRunning() {
+        return pending.get() > 0;
+    }
+
+    /**
+     * Aborts the running compactions and waits for the threads to stop.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Compaction didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compaction", e);
+        }
+    }
+
+    private void compact() {
+        while (!closed) {
+            final Compaction compaction;
+            synchronized (this) {
+                compaction = strategy.pick(dao.tables(), busy);
+                if (compaction == null) {
+                    return;
+                }
+                busy.addAll(compaction.getInputs());
+            }
+
+            try {
+                final List<SSTable> outputs = merge(compaction);
+                synchronized (this) {
+                    dao.replace(compaction.getInputs(), outputs);
+                }
+                for (final SSTable table : compaction.getInputs()) {
+                    Files.delete(table.getFile());
+                }
+            } catch (CancellationException e) {
+                return;
+            } catch (IOException e) {
+                log.error("Can't compact {}", compaction, e);
+                return;
+            } finally {
+                synchronized (this) {
+                    busy.removeAll(compaction.getInputs());
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the inputs into the tables of the target size.
+     */
+    @NotNull
+    private List<SSTable> merge(@NotNull final Compaction compaction) throws IOException {
+        final ByteBuffer from = ByteBuffer.allocate(0);
+        final List<SSTable> inputs = compaction.getInputs();
+        final List<Iterator<Cell>> iterators = new ArrayList<>(inputs.size());
+        long cells = 0;
+        long bytes = 0;
+        long generation = Long.MIN_VALUE;
+        // Range tombstones of the newer inputs
+        RangeTombstones ranges = RangeTombstones.EMPTY;
+        for (final SSTable table : inputs) {
+            // The pointers to the value log are copied as they are unless the segment is collected
+            iterators.add(ranges.filter(table::rawIterator, from));
+            ranges = ranges.union(table.getRangeTombstones());
+            cells += table.size();
+            bytes += table.sizeInBytes();
+            // The result shadows all the older tables just like the newest input
+            generation = Math.max(generation, table.getGeneration());
+        }
+        final PeekingIterator<Cell> merged = Iterators.peekingIterator(
+                new ThrottledIterator(
+                        Iters.merge(
+                                iterators,
+                                Cell.COMPARATOR,
+                                cell -> compaction.isDropTombstones() && cell.isTombstone())));
+        final RangeTombstones outputRanges = compaction.isDropTombstones() ? RangeTombstones.EMPTY : ranges;
+        if (!merged.hasNext() && outputRanges.isEmpty()) {
+            return List.of();
+        }
+
+        final long tableSize = compaction.getTableSize();
+        final long expectedKeys =
+                tableSize >= bytes
+                        ? cells
+                        : Math.max(1L, (long) ((double) cells * tableSize / bytes));
+        final List<SSTable> outputs = new ArrayList<>();
+        try {
+            // Every table gets the range tombstones between its first key and the first key of the next table
+            ByteBuffer lower = null;
+            do {
+                final ByteBuffer tableLower = lower;
+                outputs.add(
+                        dao.writeTable(
+                                generation,
+                                compaction.getLevel(),
+                                expectedKeys,
+                                new LimitedIterator(merged, tableSize),
+                                () -> outputRanges.clip(tableLower, merged.hasNext() ? merged.peek().getKey() : null)));
+                lower = merged.hasNext() ? merged.peek().getKey() : null;
+            } while (merged.hasNext());
+        } catch (IOException | RuntimeException e) {
+            for (final SSTable output : outputs) {
+                Files.deleteIfExists(output.getFile());
+            }
+            throw e;
+        }
+        return outputs;
+    }
+
+    /**
+     * Applies the rate limit and aborts the merge once the compactor is closed.
+     */
+    private final class ThrottledIterator implements Iterator<Cell> {
+        private final Iterator<Cell> iterator;
+        private int unpaid;
+
+        ThrottledIterator(@NotNull final Iterator<Cell> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Cell next() {
+            if (closed) {
+                throw new CancellationException("Compactor is closed");
+            }
+
+            final Cell cell = iterator.next();
+            if (rateLimiter != null) {
+                unpaid += cell.sizeInBytes();
+                if (unpaid >= THROTTLE_CHUNK) {
+                    rateLimiter.acquire(unpaid);
+                    unpaid = 0;
+                }
+            }
+            return cell;
+        }
+    }
+
+    /**
+     * Stops once the given number of bytes is consumed to split the output into tables.
+     */
+    private static final class LimitedIterator implements Iterator<Cell> {
+        private final Iterator<Cell> iterator;
+        private final long limit;
+        private long consumed;
+
+        LimitedIterator(
+                @NotNull final Iterator<Cell> iterator,
+                final long limit) {
+            this.iterator = iterator;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return consumed < limit && iterator.hasNext();
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Table size limit is reached");
+            }
+            final Cell cell = iterator.next();
+            consumed += cell.sizeInBytes();
+            return cell;
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tunable parameters of {@link LSMDao}.
+ *
+ * @author tuzhms
+ */
+public final class Config {
+    /**
+     * Settings used by {@link ru.mail.polis.DAOFactory} by default.
+     */
+    public static final Config DEFAULT = builder().build();
+
+    private final int flushThreshold;
+    private final int maxPendingFlushes;
+    private final long memoryBudget;
+    private final double writeSlowdownMemoryRatio;
+    private final double writeStopMemoryRatio;
+    private final double writeSlowdownDebtRatio;
+    private final double writeStopDebtRatio;
+    private final long delayedWriteRate;
+    private final int blockSize;
+    private final int blockRestartInterval;
+    private final Compression compression;
+    private final int bloomBitsPerKey;
+    private final long blockCacheCapacity;
+    private final int openThreads;
+    private final int compactionThreads;
+    private final long compactionRateLimit;
+    private final int compactionMinThreshold;
+    private final int compactionMaxThreshold;
+    private final CompactionStyle compactionStyle;
+    private final int levelTableSize;
+    private final int levelSizeRatio;
+    private final double tombstoneCompactionRatio;
+    private final int valueSeparationThreshold;
+    private final double valueLogGcRatio;
+    private final Durability durability;
+    private final long syncIntervalMillis;
+
+    private Config(@NotNull final Builder builder) {
+        this.flushThreshold = builder.flushThreshold;
+        this.maxPendingFlushes = builder.maxPendingFlushes;
+        this.memoryBudget = builder.memoryBudget;
+        this.writeSlowdownMemoryRatio = builder.writeSlowdownMemoryRatio;
+        this.writeStopMemoryRatio = builder.writeStopMemoryRatio;
+        this.writeSlowdownDebtRatio = builder.writeSlowdownDebtRatio;
+        this.writeStopDebtRatio = builder.writeStopDebtRatio;
+        this.delayedWriteRate = builder.delayedWriteRate;
+        this.blockSize = builder.blockSize;
+        this.blockRestartInterval = builder.blockRestartInterval;
+        this.compression = builder.compression;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.blockCacheCapacity = builder.blockCacheCapacity;
+        this.openThreads = builder.openThreads;
+        this.compactionThreads = builder.compactionThreads;
+        this.compactionRateLimit = builder.compactionRateLimit;
+        this.compactionMinThreshold = builder.compactionMinThreshold;
+        this.compactionMaxThreshold = builder.compactionMaxThreshold;
+        this.compactionStyle = builder.compactionStyle;
+        this.levelTableSize = builder.levelTableSize;
+        this.levelSizeRatio = builder.levelSizeRatio;
+        this.tombstoneCompactionRatio = builder.tombstoneCompactionRatio;
+        this.valueSeparationThreshold = builder.valueSeparationThreshold;
+        this.valueLogGcRatio = builder.valueLogGcRatio;
+        this.durability = builder.durability;
+        this.syncIntervalMillis = builder.syncIntervalMillis;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Size of the memtable arena in bytes: the memtable is flushed to disk once it is full.
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * Number of full memtables waiting for the background flush before the writers stall.
+     */
+    public int getMaxPendingFlushes() {
+        return maxPendingFlushes;
+    }
+
+    /**
+     * Memory the write limits are relative to in bytes, {@code 0} for the maximum heap size
+     * which is capped by {@link ru.mail.polis.DAOFactory} and bounds the direct memory by default.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Share of the memory budget held by the memtables and the block cache which slows the writes down.
+     */
+    public double getWriteSlowdownMemoryRatio() {
+        return writeSlowdownMemoryRatio;
+    }
+
+    /**
+     * Share of the memory budget held by the memtables and the block cache which stalls the writes
+     * switching to a new memtable until the full ones are flushed.
+     */
+    public double getWriteStopMemoryRatio() {
+        return writeStopMemoryRatio;
+    }
+
+    /**
+     * Size of the pending compactions relative to the memory budget which slows the writes down.
+     */
+    public double getWriteSlowdownDebtRatio() {
+        return writeSlowdownDebtRatio;
+    }
+
+    /**
+     * Size of the pending compactions relative to the memory budget which stalls the writes
+     * switching to a new memtable until the compactions catch up.
+     */
+    public double getWriteStopDebtRatio() {
+        return writeStopDebtRatio;
+    }
+
+    /**
+     * Write rate in bytes of the memtable per second once the writes are slowed down.
+     * The rate decreases further as the pressure approaches the stop limits.
+     */
+    public long getDelayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Target size of table data blocks in bytes: the unit of a seek scan.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Number of keys between the restart points of a block, i.e. the keys stored without
+     * the prefix shared with the previous key. Seeks scan at most that many keys after
+     * the binary search over the restart points.
+     */
+    public int getBlockRestartInterval() {
+        return blockRestartInterval;
+    }
+
+    /**
+     * Compression of the data blocks of the new tables, {@link Compression#NONE} by default,
+     * so the blocks are read right from the mapping without allocations.
+     */
+    @NotNull
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Bloom filter bits per key of a table, {@code 0} if filters are disabled.
+     */
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    /**
+     * Size of the block cache in direct memory in bytes, {@code 0} if blocks are read right from the mapped tables.
+     */
+    public long getBlockCacheCapacity() {
+        return blockCacheCapacity;
+    }
+
+    /**
+     * Threads opening the tables on startup, {@code 1} to open them in the calling thread.
+     */
+    public int getOpenThreads() {
+        return openThreads;
+    }
+
+    /**
+     * Size of the background compaction thread pool, {@code 0} if compaction is disabled.
+     */
+    public int getCompactionThreads() {
+        return compactionThreads;
+    }
+
+    /**
+     * Compaction write throughput limit in bytes per second, {@code 0} if unlimited.
+     */
+    public long getCompactionRateLimit() {
+        return compactionRateLimit;
+    }
+
+    /**
+     * Minimum number of similar-sized tables to be compacted together.
+     */
+    public int getCompactionMinThreshold() {
+        return compactionMinThreshold;
+    }
+
+    /**
+     * Maximum number of tables to be compacted at once.
+     */
+    public int getCompactionMaxThreshold() {
+        return compactionMaxThreshold;
+    }
+
+    @NotNull
+    public CompactionStyle getCompactionStyle() {
+        return compactionStyle;
+    }
+
+    /**
+     * Target size of a table produced by {@link CompactionStyle#LEVELED} compaction in bytes.
+     */
+    public int getLevelTableSize() {
+        return levelTableSize;
+    }
+
+    /**
+     * Ratio of target sizes of the adjacent levels for {@link CompactionStyle#LEVELED} compaction.
+     */
+    public int getLevelSizeRatio() {
+        return levelSizeRatio;
+    }
+
+    /**
+     * Share of tombstones which makes a table to be compacted alone to purge them,
+     * {@code 0} if such compactions are disabled.
+     */
+    public double getTombstoneCompactionRatio() {
+        return tombstoneCompactionRatio;
+    }
+
+    /**
+     * Minimum length of a value stored in the {@link ValueLog} rather than in the table,
+     * {@code 0} if all the values are stored in the tables.
+     */
+    public int getValueSeparationThreshold() {
+        return valueSeparationThreshold;
+    }
+
+    /**
+     * Share of dead bytes which makes the compactions move the live values out of a value log segment,
+     * so the segment is deleted.
+     */
+    public double getValueLogGcRatio() {
+        return valueLogGcRatio;
+    }
+
+    /**
+     * When the writes are forced from the write-ahead log to the disk.
+     */
+    @NotNull
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Interval between the write-ahead log syncs in milliseconds for {@link Durability#PERIODIC}.
+     */
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * The way background compaction organizes the tables.
+     */
+    public enum CompactionStyle {
+        /**
+         * Merges runs of the similar-sized tables: cheap writes, but a key may reside in many tables.
+         * The minimum and the maximum table counts of a run are set by
+         * {@link Builder#compactionThresholds(int, int)}.
+         */
+        SIZE_TIERED,
+        /**
+         * Keeps every level but the first one as a sorted run of non-overlapping tables
+         * with each level {@link Config#getLevelSizeRatio()} times larger than the previous one,
+         * so a lookup checks at most one table per level and the space overhead is small
+         * at the cost of rewriting the data more often.
+         * The minimum and the maximum table counts of the first level to be merged into the next one
+         * are set by {@link Builder#compactionThresholds(int, int)}.
+         */
+        LEVELED
+    }
+
+    /**
+     * Compression of table data blocks. Blocks which don't shrink are stored as is,
+     * so incompressible data costs a little CPU on writes only.
+     */
+    public enum Compression {
+        NONE,
+        /**
+         * Fast LZ77 compression in the spirit of LZ4.
+         */
+        LZ
+    }
+
+    /**
+     * Guarantee given by a write once it returns.
+     * The write is visible to the readers before it is durable in any mode.
+     */
+    public enum Durability {
+        /**
+         * The write is handed to the operating system before it returns, so it survives a crash of the process,
+         * but not of the machine. It takes a write to the log file per call unless a concurrent writer
+         * has handed the record over already, so unlike {@link #PERIODIC} it is not the cheapest mode
+         * on the write path, it just never waits for the disk.
+         */
+        NONE,
+        /**
+         * The write is buffered and the log is forced to the disk every {@link Config#getSyncIntervalMillis()},
+         * so a crash loses at most the writes of the last interval.
+         */
+        PERIODIC,
+        /**
+         * The write is forced to the disk. The concurrent writers share a single sync.
+         */
+        SYNC
+    }
+
+    /**
+     * Builder of {@link Config}.
+     */
+    public static final class Builder {
+        private int flushThreshold = 16 * 1024 * 1024;
+        private int maxPendingFlushes = 2;
+        private long memoryBudget;
+        private double writeSlowdownMemoryRatio = 0.3;
+        private double writeStopMemoryRatio = 0.5;
+        private double writeSlowdownDebtRatio = 8.0;
+        private double writeStopDebtRatio = 32.0;
+        private long delayedWriteRate = 16 * 1024 * 1024;
+        private int blockSize = 4 * 1024;
+        private int blockRestartInterval = 16;
+        private Compression compression = Compression.NONE;
+        private int bloomBitsPerKey = 10;
+        private long blockCacheCapacity;
+        private int openThreads = 4;
+        private int compactionThreads = 1;
+        private long compactionRateLimit;
+        private int compactionMinThreshold = 4;
+        private int compactionMaxThreshold = 32;
+        private CompactionStyle compactionStyle = CompactionStyle.SIZE_TIERED;
+        private int levelTableSize = 8 * 1024 * 1024;
+        private int levelSizeRatio = 10;
+        private double tombstoneCompactionRatio = 0.2;
+        private int valueSeparationThreshold;
+        private double valueLogGcRatio = 0.5;
+        private Durability durability = Durability.PERIODIC;
+        private long syncIntervalMillis = 1000;
+
+        private Builder() {
+            // Use Config.builder()
+        }
+
+        /**
+         * Sets the memtable size in bytes.
+         */
+        @NotNull
+        public Builder flushThreshold(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive flush threshold: " + bytes);
+            }
+            this.flushThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the number of full memtables kept in memory while they are flushed in background.
+         * Writers wait for the flushes once there are more full memtables.
+         */
+        @NotNull
+        public Builder maxPendingFlushes(final int memTables) {
+            if (memTables <= 0) {
+                throw new IllegalArgumentException("Non-positive pending flushes: " + memTables);
+            }
+            this.maxPendingFlushes = memTables;
+            return this;
+        }
+
+        /**
+         * Sets the memory the write limits are relative to, zero means the maximum heap size.
+         */
+        @NotNull
+        public Builder memoryBudget(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative memory budget: " + bytes);
+            }
+            this.memoryBudget = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the shares of the memory budget held by the memtables and the block cache
+         * which slow the writes down and which stall them.
+         */
+        @NotNull
+        public Builder writeMemoryThresholds(
+                final double slowdown,
+                final double stop) {
+            if (!(slowdown > 0.0 && slowdown <= stop)) {
+                throw new IllegalArgumentException("Invalid memory thresholds: " + slowdown + ".." + stop);
+            }
+            this.writeSlowdownMemoryRatio = slowdown;
+            this.writeStopMemoryRatio = stop;
+            return this;
+        }
+
+        /**
+         * Sets the sizes of the pending compactions relative to the memory budget
+         * which slow the writes down and which stall them.
+         */
+        @NotNull
+        public Builder writeDebtThresholds(
+                final double slowdown,
+                final double stop) {
+            if (!(slowdown > 0.0 && slowdown <= stop)) {
+                throw new IllegalArgumentException("Invalid compaction debt thresholds: " + slowdown + ".." + stop);
+            }
+            this.writeSlowdownDebtRatio = slowdown;
+            this.writeStopDebtRatio = stop;
+            return this;
+        }
+
+        /**
+         * Sets the write rate once the writes are slowed down.
+         */
+        @NotNull
+        public Builder delayedWriteRate(final long bytesPerSecond) {
+            if (bytesPerSecond <= 0) {
+                throw new IllegalArgumentException("Non-positive delayed write rate: " + bytesPerSecond);
+            }
+            this.delayedWriteRate = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the target size of table data blocks in bytes.
+         */
+        @NotNull
+        public Builder blockSize(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive block size: " + bytes);
+            }
+            this.blockSize = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Builder blockRestartInterval(final int keys) {
+            if (keys <= 0) {
+                throw new IllegalArgumentException("Non-positive block restart interval: " + keys);
+            }
+            this.blockRestartInterval = keys;
+            return this;
+        }
+
+        /**
+         * Sets the compression of the data blocks. Every read of a compressed block decodes it
+         * to the heap, so it is worth enabling the {@link #blockCacheCapacity block cache} as well.
+         */
+        @NotNull
+        public Builder compression(@NotNull final Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Sets Bloom filter bits per key: 10 bits give about 1% of false positives.
+         * Zero disables filters for the new tables.
+         */
+        @NotNull
+        public Builder bloomBitsPerKey(final int bits) {
+            if (bits < 0) {
+                throw new IllegalArgumentException("Negative bits per key: " + bits);
+            }
+            this.bloomBitsPerKey = bits;
+            return this;
+        }
+
+        /**
+         * Sets the size of the block cache shared by the tables. The cache lives in direct memory
+         * limited by {@code -XX:MaxDirectMemorySize} together with the memtables.
+         * Zero disables the cache: the mapped tables are cached by the operating system anyway.
+         */
+        @NotNull
+        public Builder blockCacheCapacity(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative cache capacity: " + bytes);
+            }
+            this.blockCacheCapacity = bytes;
+            return this;
+        }
+
+        @NotNull
+        public Builder openThreads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("Non-positive open threads: " + threads);
+            }
+            this.openThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of background compaction threads, zero disables compaction.
+         */
+        @NotNull
+        public Builder compactionThreads(final int threads) {
+            if (threads < 0) {
+                throw new IllegalArgumentException("Negative thread count: " + threads);
+            }
+            this.compactionThreads = threads;
+            return this;
+        }
+
+        /**
+         * Throttles compaction writes to the given bytes per second, zero means no limit.
+         */
+        @NotNull
+        public Builder compactionRateLimit(final long bytesPerSecond) {
+            if (bytesPerSecond < 0) {
+                throw new IllegalArgumentException("Negative rate limit: " + bytesPerSecond);
+            }
+            this.compactionRateLimit = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the range of table counts to be compacted at once.
+         */
+        @NotNull
+        public Builder compactionThresholds(
+                final int min,
+                final int max) {
+            if (min < 2 || max < min) {
+                throw new IllegalArgumentException("Invalid compaction thresholds: " + min + ".." + max);
+            }
+            this.compactionMinThreshold = min;
+            this.compactionMaxThreshold = max;
+            return this;
+        }
+
+        @NotNull
+        public Builder compactionStyle(@NotNull final CompactionStyle style) {
+            this.compactionStyle = style;
+            return this;
+        }
+
+        /**
+         * Sets the target size of tables produced by {@link CompactionStyle#LEVELED} compaction.
+         */
+        @NotNull
+        public Builder levelTableSize(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive table size: " + bytes);
+            }
+            this.levelTableSize = bytes;
+            return this;
+        }
+
+        /**
+         * Sets how many times each level is larger than the previous one
+         * for {@link CompactionStyle#LEVELED} compaction.
+         */
+        @NotNull
+        public Builder levelSizeRatio(final int ratio) {
+            if (ratio < 2) {
+                throw new IllegalArgumentException("Level size ratio is less than 2: " + ratio);
+            }
+            this.levelSizeRatio = ratio;
+            return this;
+        }
+
+        /**
+         * Sets the share of tombstones which makes a table to be compacted alone once there is
+         * no older data for the tombstones to shadow. Zero disables such compactions.
+         */
+        @NotNull
+        public Builder tombstoneCompactionRatio(final double ratio) {
+            if (!(ratio >= 0.0 && ratio <= 1.0)) {
+                throw new IllegalArgumentException("Tombstone ratio is out of [0, 1]: " + ratio);
+            }
+            this.tombstoneCompactionRatio = ratio;
+            return this;
+        }
+
+        /**
+         * Sets the minimum length of a value flushed to the value log with the pointer stored in the table,
+         * so the compactions don't rewrite the large values. Zero disables the separation.
+         */
+        @NotNull
+        public Builder valueSeparationThreshold(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative value separation threshold: " + bytes);
+            }
+            this.valueSeparationThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Sets the share of dead bytes which makes a value log segment to be collected by the compactions.
+         */
+        @NotNull
+        public Builder valueLogGcRatio(final double ratio) {
+            if (!(ratio > 0.0 && ratio <= 1.0)) {
+                throw new IllegalArgumentException("Value log garbage ratio is out of (0, 1]: " + ratio);
+            }
+            this.valueLogGcRatio = ratio;
+            return this;
+        }
+
+        @NotNull
+        public Builder durability(@NotNull final Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Sets the interval between the write-ahead log syncs for {@link Durability#PERIODIC}.
+         */
+        @NotNull
+        public Builder syncIntervalMillis(final long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Non-positive sync interval: " + millis);
+            }
+            this.syncIntervalMillis = millis;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            return new Config(this);
+        }
+    }
+}
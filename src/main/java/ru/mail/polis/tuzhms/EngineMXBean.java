@@ -0,0 +1,39 @@
+package ru.mail.polis.tuzhms;
+
+/**
+ * Management interface of {@link LSMDao} registered as
+ * {@code ru.mail.polis.tuzhms:type=LSMDao,name="<data directory>"}, see {@link EngineStats} for the attributes.
+ *
+ * @author tuzhms
+ */
+public interface EngineMXBean {
+    HistogramStats getGetLatency();
+
+    HistogramStats getUpsertLatency();
+
+    HistogramStats getRemoveLatency();
+
+    HistogramStats getIteratorLatency();
+
+    HistogramStats getTablesProbed();
+
+    long getFlushes();
+
+    long getCompactions();
+
+    long getBytesIngested();
+
+    long getBytesWritten();
+
+    double getWriteAmplification();
+
+    double getReadAmplification();
+
+    long getStalls();
+
+    long getStallNanos();
+
+    long getDelays();
+
+    long getDelayNanos();
+}
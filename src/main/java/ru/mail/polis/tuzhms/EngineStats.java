@@ -0,0 +1,207 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the storage latencies and amplification counters.
+ * The latencies are in nanoseconds.
+ *
+ * @author tuzhms
+ */
+public final class EngineStats {
+    private final HistogramStats get;
+    private final HistogramStats upsert;
+    private final HistogramStats remove;
+    private final HistogramStats iterator;
+    private final HistogramStats tablesProbed;
+    private final long flushes;
+    private final long compactions;
+    private final long bytesIngested;
+    private final long bytesWritten;
+    private final long stalls;
+    private final long stallNanos;
+    private final long delays;
+    private final long delayNanos;
+
+    EngineStats(
+            @NotNull final HistogramStats get,
+            @NotNull final HistogramStats upsert,
+            @NotNull final HistogramStats remove,
+            @NotNull final HistogramStats iterator,
+            @NotNull final HistogramStats tablesProbed,
+            final long flushes,
+            final long compactions,
+            final long bytesIngested,
+            final long bytesWritten,
+            final long stalls,
+            final long stallNanos,
+            final long delays,
+            final long delayNanos) {
+        this.get = get;
+        this.upsert = upsert;
+        this.remove = remove;
+        this.iterator = iterator;
+        this.tablesProbed = tablesProbed;
+        this.flushes = flushes;
+        this.compactions = compactions;
+        this.bytesIngested = bytesIngested;
+        this.bytesWritten = bytesWritten;
+        this.stalls = stalls;
+        this.stallNanos = stallNanos;
+        this.delays = delays;
+        this.delayNanos = delayNanos;
+    }
+
+    /**
+     * Latencies of the lookups.
+     */
+    @NotNull
+    public HistogramStats getGet() {
+        return get;
+    }
+
+    /**
+     * Latencies of the upserts including the wait for the log.
+     */
+    @NotNull
+    public HistogramStats getUpsert() {
+        return upsert;
+    }
+
+    /**
+     * Latencies of the removals including the wait for the log.
+     */
+    @NotNull
+    public HistogramStats getRemove() {
+        return remove;
+    }
+
+    /**
+     * Latencies of the creation of the iterators and the cursors positioned at the first record.
+     */
+    @NotNull
+    public HistogramStats getIterator() {
+        return iterator;
+    }
+
+    /**
+     * Tables checked per lookup including the ones rejected by the filters, see {@link FilterStats}.
+     */
+    @NotNull
+    public HistogramStats getTablesProbed() {
+        return tablesProbed;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Number of the finished compactions.
+     */
+    public long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Size of the keys and the values written by the users.
+     */
+    public long getBytesIngested() {
+        return bytesIngested;
+    }
+
+    /**
+     * Size of the tables written by the flushes and the compactions.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Number of the writes blocked until the flushes or the compactions catch up.
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    /**
+     * Time the writes were blocked until the flushes or the compactions catch up.
+     */
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * Number of the writes slowed down by the {@link Config#getDelayedWriteRate() delayed write rate}.
+     */
+    public long getDelays() {
+        return delays;
+    }
+
+    /**
+     * Time the writes were slowed down by the {@link Config#getDelayedWriteRate() delayed write rate}.
+     */
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Bytes written to the tables per ingested byte.
+     */
+    public double getWriteAmplification() {
+        return bytesIngested == 0 ? 0.0 : (double) bytesWritten / bytesIngested;
+    }
+
+    /**
+     * Mean number of the tables checked per lookup.
+     */
+    public double getReadAmplification() {
+        return tablesProbed.getMean();
+    }
+
+    /**
+     * Returns the flat view of the counters keyed by the dotted names like {@code get.p99}.
+     */
+    @NotNull
+    public Map<String, Number> toMap() {
+        final Map<String, Number> result = new LinkedHashMap<>();
+        put(result, "get", get);
+        put(result, "upsert", upsert);
+        put(result, "remove", remove);
+        put(result, "iterator", iterator);
+        put(result, "tablesProbed", tablesProbed);
+        result.put("flushes", flushes);
+        result.put("compactions", compactions);
+        result.put("bytesIngested", bytesIngested);
+        result.put("bytesWritten", bytesWritten);
+        result.put("writeAmplification", getWriteAmplification());
+        result.put("readAmplification", getReadAmplification());
+        result.put("stalls", stalls);
+        result.put("stallNanos", stallNanos);
+        result.put("delays", delays);
+        result.put("delayNanos", delayNanos);
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void put(
+            @NotNull final Map<String, Number> result,
+            @NotNull final String name,
+            @NotNull final HistogramStats stats) {
+        result.put(name + ".count", stats.getCount());
+        result.put(name + ".mean", stats.getMean());
+        result.put(name + ".p50", stats.getP50());
+        result.put(name + ".p90", stats.getP90());
+        result.put(name + ".p99", stats.getP99());
+        result.put(name + ".p999", stats.getP999());
+        result.put(name + ".max", stats.getMax());
+    }
+
+    @Override
+    public String toString() {
+        return "EngineStats" + toMap();
+    }
+}
@@ -0,0 +1,57 @@
+package ru.mail.polis.tuzhms;
+
+/**
+ * Snapshot of Bloom filter effectiveness counters for point lookups.
+ *
+ * @author tuzhms
+ */
+public final class FilterStats {
+    private final long hits;
+    private final long misses;
+    private final long falsePositives;
+
+    FilterStats(
+            final long hits,
+            final long misses,
+            final long falsePositives) {
+        this.hits = hits;
+        this.misses = misses;
+        this.falsePositives = falsePositives;
+    }
+
+    /**
+     * Lookups where the filter passed and the table contained the key.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Lookups where the filter rejected the key, so the table wasn't read at all.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Lookups where the filter passed but the table didn't contain the key.
+     */
+    public long getFalsePositives() {
+        return falsePositives;
+    }
+
+    /**
+     * Share of absent keys which were not rejected by filters.
+     */
+    public double getFalsePositiveRate() {
+        final long absent = misses + falsePositives;
+        return absent == 0 ? 0.0 : (double) falsePositives / absent;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterStats{hits=" + hits
+                + ", misses=" + misses
+                + ", falsePositives=" + falsePositives + '}';
+    }
+}
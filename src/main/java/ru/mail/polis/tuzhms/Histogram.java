@@ -0,0 +1,101 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative values with a bounded relative error.
+ *
+ * <p>Every power of two is split into {@link #SUB_BUCKETS} equal buckets, so a bucket spans at most
+ * 1/8 of its lower bound and the whole {@code long} range fits into a few hundred counters.
+ * Recording is a couple of shifts and atomic increments without locks and allocations,
+ * the percentiles are estimated from the counters by {@link #stats()}.
+ *
+ * @author tuzhms
+ */
+final class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records the value, the negative ones are recorded as zero.
+     */
+    void record(final long value) {
+        final long recorded = Math.max(value, 0L);
+        counts.incrementAndGet(bucket(recorded));
+        sum.add(recorded);
+        max.accumulate(recorded);
+    }
+
+    /**
+     * Returns the estimates of the recorded values, concurrent recordings may be partially counted.
+     */
+    @NotNull
+    HistogramStats stats() {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        final long maximum = max.get();
+        return new HistogramStats(
+                count,
+                count == 0 ? 0.0 : (double) sum.sum() / count,
+                percentile(snapshot, count, 0.5, maximum),
+                percentile(snapshot, count, 0.9, maximum),
+                percentile(snapshot, count, 0.99, maximum),
+                percentile(snapshot, count, 0.999, maximum),
+                maximum);
+    }
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the greatest value of the bucket.
+     */
+    static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given share of the values capped by the maximum.
+     */
+    private static long percentile(
+            @NotNull final long[] counts,
+            final long count,
+            final double share,
+            final long maximum) {
+        if (count == 0) {
+            return 0L;
+        }
+        final long rank = Math.max((long) Math.ceil(count * share), 1L);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maximum);
+            }
+        }
+        return maximum;
+    }
+}
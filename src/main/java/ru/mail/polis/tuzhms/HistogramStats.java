@@ -0,0 +1,75 @@
+package ru.mail.polis.tuzhms;
+
+/**
+ * Snapshot of a histogram, the percentiles are overestimated by at most 1/8.
+ *
+ * @author tuzhms
+ */
+public final class HistogramStats {
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    HistogramStats(
+            final long count,
+            final double mean,
+            final long p50,
+            final long p90,
+            final long p99,
+            final long p999,
+            final long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * Number of the recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramStats{count=" + count
+                + ", mean=" + mean
+                + ", p50=" + p50
+                + ", p90=" + p90
+                + ", p99=" + p99
+                + ", p999=" + p999
+                + ", max=" + max + '}';
+    }
+}
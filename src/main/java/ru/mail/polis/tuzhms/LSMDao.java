@@ -0,0 +1,1377 @@
+package ru.mail.polis.tuzhms;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.DAO;
+import ru.mail.polis.Iters;
+import ru.mail.polis.Record;
+import ru.mail.polis.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.ObjectName;
+
+/**
+ * Log-structured merge tree storage.
+ *
+ * <p>Writes go to the off-heap {@link MemTable}. Once it is full, it is replaced with the fresh one at once
+ * and flushed to a new {@link SSTable} in background, while still being readable.
+ * Writers wait for the flushes only if they fall {@link Config#getMaxPendingFlushes()} memtables behind.
+ * Every write is also appended to the {@link WriteAheadLog} of the memtable
+ * to be replayed on startup after a crash, see {@link Config#getDurability()}.
+ * The live tables and logs are recorded in the {@link Manifest}, so opening reads neither the directory
+ * nor the blocks of the tables, and the other files in the directory are never touched.
+ * Reads merge the memtable with all the tables preferring the newest cells.
+ * The tables are merged together in background by {@link Compactor}
+ * according to {@link Config#getCompactionStyle()}.
+ * With {@link Config#getValueSeparationThreshold()} the large values are flushed to the {@link ValueLog},
+ * so the compactions copy the pointers rather than the values.
+ *
+ * @author tuzhms
+ */
+public final class LSMDao implements DAO {
+    private static final Logger log = LoggerFactory.getLogger(LSMDao.class);
+
+    private static final String SUFFIX = ".sst";
+    private static final String TEMP = ".tmp";
+    private static final Pattern TABLE = Pattern.compile("(\\d+)\\.sst");
+    private static final Pattern TEMP_TABLE = Pattern.compile("\\d+\\.tmp");
+    private static final String LOG = ".log";
+    private static final Pattern LOG_FILE = Pattern.compile("(\\d+)\\.log");
+    private static final Pattern FILE = Pattern.compile("(\\d+)\\.(?:sst|tmp|log|vlog)");
+    private static final Pattern VALUE_LOG = Pattern.compile("(\\d+)\\.vlog");
+    private static final Comparator<Cell> DESCENDING = Cell.COMPARATOR.reversed();
+    private static final long STALL_RECHECK_MILLIS = 100;
+
+    private final Path base;
+    private final Config config;
+
+    private final LongAdder filterHits = new LongAdder();
+    private final LongAdder filterMisses = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+    private final Metrics metrics = new Metrics();
+    @Nullable
+    private final ObjectName mbean;
+
+    @Nullable
+    private final BlockCache blockCache;
+    private final Manifest manifest;
+    private final ValueLog valueLog;
+    private final Compactor compactor;
+    private final WriteController writeController;
+    private final ExecutorService flusher;
+    @Nullable
+    private final ScheduledExecutorService syncer;
+    /**
+     * Source of both file names and generations of the new tables.
+     */
+    private final AtomicLong nextId = new AtomicLong();
+
+    private volatile MemTable memTable;
+    /**
+     * Full memtables from the newest to the oldest one.
+     */
+    private volatile List<PendingFlush> flushing = List.of();
+    private volatile Tables tables;
+    /**
+     * Log of the current memtable, {@code null} during the recovery only.
+     */
+    private volatile WriteAheadLog wal;
+    /**
+     * Log for the next memtable created in advance by the flusher, so a switch doesn't wait for the manifest,
+     * guarded by this.
+     */
+    @Nullable
+    private WriteAheadLog spareLog;
+    /**
+     * The last background flush failure, guarded by this.
+     */
+    @Nullable
+    private IOException flushFailure;
+    /**
+     * Estimated bytes of the pending compactions, guarded by this.
+     */
+    private long compactionDebt;
+
+    private final long openedAt;
+    private final long openNanos;
+    private final int openedTables;
+    /**
+     * Time from {@link #openedAt} to the end of the first lookup or {@code -1}.
+     */
+    private volatile long firstGetNanos = -1;
+
+    /**
+     * Opens the storage in the given directory.
+     *
+     * @param base   directory with the data
+     * @param config storage settings
+     */
+    public LSMDao(
+            @NotNull final File base,
+            @NotNull final Config config) throws IOException {
+        this.openedAt = System.nanoTime();
+        this.base = base.toPath();
+        this.config = config;
+        this.blockCache = config.getBlockCacheCapacity() > 0 ? new BlockCache(config.getBlockCacheCapacity()) : null;
+        this.valueLog = new ValueLog(this.base);
+
+        final List<SSTable> opened = new ArrayList<>();
+        final List<Path> logs = new ArrayList<>();
+        Runnable cleanup = null;
+        if (Manifest.exists(this.base)) {
+            this.manifest = Manifest.open(this.base);
+            final List<Manifest.TableEntry> entries = manifest.getTables();
+            final Set<String> live = new HashSet<>();
+            for (final Manifest.TableEntry entry : entries) {
+                live.add(entry.getName());
+                final ValueRefs refs = entry.getValueRefs();
+                for (int i = 0; i < refs.size(); i++) {
+                    live.add(ValueLog.name(refs.id(i)));
+                }
+            }
+            opened.addAll(openTables(entries));
+            for (final String name : manifest.getLogs()) {
+                logs.add(this.base.resolve(name));
+            }
+            final long maxId = manifest.getNextId();
+            this.nextId.set(maxId);
+            cleanup = () -> deleteObsoleteFiles(live, maxId);
+        } else {
+            // Storage of the older version or the new one
+            this.nextId.set(scan(opened, logs) + 1);
+            final Manifest.Edit initial = edit();
+            opened.forEach(initial::addTable);
+            logs.forEach(initial::addLog);
+            this.manifest = Manifest.create(this.base, initial);
+        }
+        this.openedTables = opened.size();
+        this.tables = Tables.of(opened);
+        this.memTable = new MemTable(config.getFlushThreshold());
+        this.compactor = new Compactor(this, config);
+        this.writeController = new WriteController(
+                config,
+                config.getMemoryBudget() > 0 ? config.getMemoryBudget() : Runtime.getRuntime().maxMemory());
+        this.compactionDebt = compactor.pendingBytes(tables);
+        this.flusher = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lsm-flush-%d")
+                        .setDaemon(true)
+                        .build());
+        recover(logs);
+        if (cleanup != null) {
+            flusher.execute(cleanup);
+        }
+        this.wal = createLog();
+        flusher.execute(this::prepareLog);
+        if (config.getDurability() == Config.Durability.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("lsm-wal-sync-%d")
+                            .setDaemon(true)
+                            .build());
+            syncer.scheduleWithFixedDelay(
+                    this::sync,
+                    config.getSyncIntervalMillis(),
+                    config.getSyncIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+        compactor.schedule();
+        this.mbean = metrics.register(this.base);
+        this.openNanos = System.nanoTime() - openedAt;
+    }
+
+    /**
+     * Iterates over the {@link #snapshot() snapshot} taken at the call.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+        final long start = System.nanoTime();
+        final Iterator<Record> result = snapshot().iterator(from);
+        metrics.iterator.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Returns the cursor over the {@link #snapshot() snapshot} taken at the call.
+     * The cursor returns views of the memtable arenas and the table blocks, so a scan allocates
+     * per block rather than per record.
+     */
+    @NotNull
+    @Override
+    public Cursor cursor() {
+        final long start = System.nanoTime();
+        final Cursor result = snapshot().cursor();
+        metrics.iterator.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Scans backwards over the {@link #snapshot() snapshot} taken at the call as fast as forwards.
+     */
+    @NotNull
+    @Override
+    public Iterator<Record> descendingIterator(@NotNull final ByteBuffer from) {
+        final long start = System.nanoTime();
+        final Iterator<Record> result = snapshot().descendingIterator(from);
+        metrics.iterator.record(System.nanoTime() - start);
+        return result;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> descendingRange(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) {
+        final long start = System.nanoTime();
+        final Iterator<Record> result = snapshot().descendingRange(from, to);
+        metrics.iterator.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Captures the current state of the storage to read it consistently regardless of the subsequent writes.
+     * The writes are ordered by the storage lock, so the snapshot sees either the whole batch or nothing of it.
+     * The lock is held just to capture the sources, the reads don't block the writers.
+     */
+    @NotNull
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(memTable, memTable.mark(), flushing, tables);
+    }
+
+    /**
+     * Looks the key up from the newest source to the oldest one stopping at the first value or tombstone
+     * including the range ones.
+     * Tables rejected by their Bloom filters are skipped, only a single table with the matching key range
+     * is checked on every level but the first one.
+     * Nothing is allocated except the view of the found value and the blocks which are decoded
+     * or loaded into the cache.
+     */
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
+        final long start = System.nanoTime();
+        try {
+            // Memtables must be read before tables not to miss the concurrently flushed cells
+            final MemTable current = memTable;
+            final List<PendingFlush> pending = flushing;
+            return lookup(key, current, MemTable.LATEST, pending, tables);
+        } finally {
+            metrics.get.record(System.nanoTime() - start);
+            if (firstGetNanos < 0) {
+                firstGetNanos = System.nanoTime() - openedAt;
+            }
+        }
+    }
+
+    @NotNull
+    private ByteBuffer lookup(
+            @NotNull final ByteBuffer key,
+            @NotNull final MemTable current,
+            final int mark,
+            @NotNull final List<PendingFlush> pending,
+            @NotNull final Tables snapshot) {
+        int probed = 0;
+        try {
+            ByteBuffer value = get(current, mark, key);
+            for (int i = 0; value == null && i < pending.size(); i++) {
+                value = get(pending.get(i).memTable, MemTable.LATEST, key);
+            }
+            if (value != null) {
+                return value;
+            }
+
+            for (int i = snapshot.first(key); i < snapshot.size(); i = snapshot.next(i, key)) {
+                final SSTable table = snapshot.get(i);
+                probed++;
+                final ByteBuffer found = find(table, key);
+                if (found != null) {
+                    return found;
+                }
+                // Range tombstones shadow the older tables only
+                if (table.isRangeDeleted(key)) {
+                    throw new NoSuchElementException("Removed");
+                }
+            }
+            throw new NoSuchElementException("Not found");
+        } finally {
+            metrics.tablesProbed.record(probed);
+        }
+    }
+
+    /**
+     * Appends the write to the log before the memtable under the storage lock and waits for it to be logged
+     * as required by {@link Config#getDurability()} outside of the lock, so the concurrent writers share a single sync.
+     */
+    @Override
+    public void upsert(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        final int size = MemTable.sizeOf(key, value);
+        throttle(size);
+        final WriteAheadLog current;
+        final long position;
+        synchronized (this) {
+            reserve(size);
+            // Readers never see a write missing in the log
+            current = wal;
+            position = current.upsert(key, value);
+            put(key, value);
+            writeController.update(memoryUsage(), compactionDebt);
+        }
+        current.commit(position);
+        metrics.bytesIngested.add(key.remaining() + value.remaining());
+        metrics.upsert.record(System.nanoTime() - start);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) throws IOException {
+        final long start = System.nanoTime();
+        final int size = MemTable.sizeOf(key, null);
+        throttle(size);
+        final WriteAheadLog current;
+        final long position;
+        synchronized (this) {
+            reserve(size);
+            current = wal;
+            position = current.upsert(key, null);
+            put(key, null);
+            writeController.update(memoryUsage(), compactionDebt);
+        }
+        current.commit(position);
+        metrics.bytesIngested.add(key.remaining());
+        metrics.remove.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Logs the batch as a single record and applies it under a single lock.
+     * The batch never spans memtables, so it is flushed or replayed as a whole.
+     */
+    @Override
+    public void write(@NotNull final WriteBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long size = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            size += MemTable.sizeOf(batch.key(i), batch.value(i));
+        }
+        throttle(size);
+        final WriteAheadLog current;
+        final long position;
+        synchronized (this) {
+            reserve(size);
+            current = wal;
+            position = current.write(batch);
+            // The room is reserved before the batch is logged, so the logged batch is always applied as a whole
+            for (int i = 0; i < batch.size(); i++) {
+                memTable.put(batch.key(i), batch.value(i));
+            }
+            writeController.update(memoryUsage(), compactionDebt);
+        }
+        current.commit(position);
+        long ingested = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            final ByteBuffer value = batch.value(i);
+            ingested += batch.key(i).remaining() + (value == null ? 0 : value.remaining());
+        }
+        metrics.bytesIngested.add(ingested);
+    }
+
+    /**
+     * Writes a single range tombstone regardless of the number of the removed keys.
+     */
+    @Override
+    public void removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        if (from.compareTo(to) >= 0) {
+            return;
+        }
+
+        final int size = MemTable.sizeOfRange(from, to);
+        throttle(size);
+        final WriteAheadLog current;
+        final long position;
+        synchronized (this) {
+            reserve(size);
+            current = wal;
+            position = current.removeRange(from, to);
+            putRange(from, to);
+            writeController.update(memoryUsage(), compactionDebt);
+        }
+        current.commit(position);
+        metrics.bytesIngested.add(from.remaining() + to.remaining());
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Compaction and flushes swap tables under the storage lock, so stop them before taking the lock
+        compactor.close();
+        shutdown(flusher, "Flush");
+        if (syncer != null) {
+            shutdown(syncer, "Log sync");
+        }
+        synchronized (this) {
+            // Leftovers of the failed background flushes
+            while (!flushing.isEmpty()) {
+                flushOldest();
+            }
+            // The log is persisted in the table now
+            final List<Path> logs = new ArrayList<>(2);
+            logs.add(wal.getFile());
+            if (spareLog != null) {
+                logs.add(spareLog.getFile());
+                spareLog.close();
+            }
+            publish(memTable.isEmpty() ? null : flush(memTable), logs);
+            wal.close();
+            for (final Path file : logs) {
+                Files.delete(file);
+            }
+            manifest.close();
+        }
+        Metrics.unregister(mbean);
+    }
+
+    /**
+     * Returns the memtable size in bytes.
+     */
+    public long memTableSize() {
+        return memTable.sizeInBytes();
+    }
+
+    /**
+     * Returns Bloom filter counters to tune {@link Config#getBloomBitsPerKey()}.
+     */
+    @NotNull
+    public FilterStats filterStats() {
+        return new FilterStats(filterHits.sum(), filterMisses.sum(), filterFalsePositives.sum());
+    }
+
+    /**
+     * Returns timings of the opening of the storage.
+     */
+    @NotNull
+    public StartupStats startupStats() {
+        return new StartupStats(openedTables, openNanos, firstGetNanos);
+    }
+
+    /**
+     * Returns block cache counters to tune {@link Config#getBlockCacheCapacity()}.
+     */
+    @NotNull
+    public CacheStats cacheStats() {
+        return blockCache == null ? new CacheStats(0L, 0L, 0L, 0L, 0L) : blockCache.stats();
+    }
+
+    /**
+     * Returns latency histograms and amplification counters, also exposed via JMX as {@link EngineMXBean}.
+     */
+    @NotNull
+    public EngineStats engineStats() {
+        return metrics.stats();
+    }
+
+    /**
+     * Returns {@link #engineStats()} keyed by the dotted names.
+     */
+    @NotNull
+    @Override
+    public Map<String, Number> stats() {
+        return metrics.stats().toMap();
+    }
+
+    /**
+     * Looks the key up in the table updating the filter statistics.
+     *
+     * @return the value or {@code null} if the table doesn't contain the key
+     * @throws NoSuchElementException if the key is removed
+     */
+    @Nullable
+    private ByteBuffer find(
+            @NotNull final SSTable table,
+            @NotNull final ByteBuffer key) throws NoSuchElementException {
+        if (!table.mightContain(key)) {
+            filterMisses.increment();
+            return null;
+        }
+        final ByteBuffer value;
+        try {
+            value = table.find(key);
+        } catch (NoSuchElementException e) {
+            filterHits.increment();
+            throw e;
+        }
+        if (value == null) {
+            filterFalsePositives.increment();
+        } else {
+            filterHits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Looks the key up in the memtable as of the mark.
+     *
+     * @return the value or {@code null} if the memtable doesn't know the key
+     * @throws NoSuchElementException if the key is removed
+     */
+    @Nullable
+    private static ByteBuffer get(
+            @NotNull final MemTable memTable,
+            final int mark,
+            @NotNull final ByteBuffer key) throws NoSuchElementException {
+        final int value = memTable.find(key, mark);
+        if (memTable.isRangeDeleted(key, value, mark)) {
+            throw new NoSuchElementException("Removed");
+        }
+        if (value == MemTable.ABSENT) {
+            return null;
+        }
+        if (memTable.isTombstone(value)) {
+            throw new NoSuchElementException("Removed");
+        }
+        return memTable.value(value);
+    }
+
+    /**
+     * Merges the cursors over the memtables and the tables into the cursor over the freshest live cells.
+     * The ranges deleted by the newer sources are skipped in the older ones with a seek.
+     */
+    @NotNull
+    private static MergeCursor cursor(
+            @NotNull final MemTable current,
+            final int mark,
+            @NotNull final List<PendingFlush> pending,
+            @NotNull final Tables snapshot) {
+        final List<CellCursor> cursors = new ArrayList<>(snapshot.size() + pending.size() + 1);
+        cursors.add(current.cursor(mark));
+        RangeTombstones ranges = current.rangeTombstones(mark);
+        for (final PendingFlush flush : pending) {
+            final MemTable full = flush.memTable;
+            cursors.add(ranges.filter(full.cursor(MemTable.LATEST)));
+            ranges = ranges.union(full.rangeTombstones());
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            final SSTable table = snapshot.get(i);
+            cursors.add(ranges.filter(table.cursor(snapshot.isBottom(i))));
+            ranges = ranges.union(table.getRangeTombstones());
+        }
+        // Sources are ordered from the newest to the oldest
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Merges the sources like {@link #cursor(MemTable, int, List, Tables)} but in descending order.
+     *
+     * @param from the first key (inclusive) or {@code null} to start at the last cell
+     */
+    @NotNull
+    private static Iterator<Cell> descendingCells(
+            @Nullable final ByteBuffer from,
+            @NotNull final MemTable current,
+            final int mark,
+            @NotNull final List<PendingFlush> pending,
+            @NotNull final Tables snapshot) {
+        final List<Iterator<Cell>> iterators = new ArrayList<>(snapshot.size() + pending.size() + 1);
+        iterators.add(current.descendingIterator(from, mark));
+        RangeTombstones ranges = current.rangeTombstones(mark);
+        for (final PendingFlush flush : pending) {
+            final MemTable full = flush.memTable;
+            iterators.add(ranges.descendingFilter(key -> full.descendingIterator(key, MemTable.LATEST), from));
+            ranges = ranges.union(full.rangeTombstones());
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            final SSTable table = snapshot.get(i);
+            final boolean liveOnly = snapshot.isBottom(i);
+            iterators.add(ranges.descendingFilter(key -> table.descendingIterator(key, liveOnly), from));
+            ranges = ranges.union(table.getRangeTombstones());
+        }
+        return Iters.merge(iterators, DESCENDING, Cell::isTombstone);
+    }
+
+    /**
+     * Waits for the write to fit the delayed write rate if the flushes or the compactions fall behind.
+     */
+    private void throttle(final long bytes) {
+        final long waited = writeController.delay(bytes);
+        if (waited > 0) {
+            metrics.delays.increment();
+            metrics.delayNanos.add(waited);
+        }
+    }
+
+    /**
+     * Bytes held by the filled part of the current memtable, the arenas of the full memtables and the block cache.
+     */
+    private long memoryUsage() {
+        long result = memTable.sizeInBytes() + config.getBlockCacheCapacity();
+        // The memtables of the oversized writes are larger than the flush threshold
+        for (final PendingFlush pending : flushing) {
+            result += pending.memTable.capacity();
+        }
+        return result;
+    }
+
+    /**
+     * Whether the writer switching the memtable should wait: there are too many full memtables already
+     * or the {@link WriteController} stops the writes while the flushes or the compactions can relieve it.
+     */
+    private boolean mustStall() {
+        return flushing.size() >= config.getMaxPendingFlushes()
+                || writeController.isStopped() && (!flushing.isEmpty() || compactor.isRunning());
+    }
+
+    /**
+     * Switches to the new memtable unless the current one has the room for the write,
+     * so the write is applied to the memtable it is logged for.
+     */
+    private void reserve(final long bytes) throws IOException {
+        if (!memTable.hasRoom(bytes)) {
+            switchMemTable(bytes);
+        }
+    }
+
+    private void put(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) throws IOException {
+        if (memTable.put(key, value)) {
+            return;
+        }
+
+        switchMemTable(MemTable.sizeOf(key, value));
+        if (!memTable.put(key, value)) {
+            throw new IllegalStateException("Can't fit the entry into the empty memtable");
+        }
+    }
+
+    private void putRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        if (memTable.removeRange(from, to)) {
+            return;
+        }
+
+        switchMemTable(MemTable.sizeOfRange(from, to));
+        if (!memTable.removeRange(from, to)) {
+            throw new IllegalStateException("Can't fit the range into the empty memtable");
+        }
+    }
+
+    /**
+     * Hands the full memtable over to the background flush and starts the new one with its own log.
+     * Waits for the flushes if there are too many full memtables already and for the flushes or the compactions
+     * if the {@link WriteController} stops the writes.
+     *
+     * @param required bytes of the arena required by the pending write
+     */
+    private void switchMemTable(final long required) throws IOException {
+        // Oversized entries get the dedicated arena
+        final int capacity = Math.toIntExact(Math.max(config.getFlushThreshold(), required * 2));
+        if (wal == null) {
+            // Recovery persists the replayed memtables at once
+            if (!memTable.isEmpty()) {
+                publish(flush(memTable), List.of());
+            }
+            memTable = new MemTable(capacity);
+            return;
+        }
+        if (memTable.isEmpty()) {
+            memTable = new MemTable(capacity);
+            return;
+        }
+
+        if (mustStall()) {
+            final long start = System.nanoTime();
+            metrics.stalls.increment();
+            try {
+                while (mustStall()) {
+                    if (flushFailure != null) {
+                        throw new IOException("Can't flush memtable", flushFailure);
+                    }
+                    try {
+                        // Compactions may end without changing the tables
+                        wait(STALL_RECHECK_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for flush");
+                    }
+                    if (memTable.hasRoom(required)) {
+                        // Switched by the concurrent writer
+                        return;
+                    }
+                }
+            } finally {
+                metrics.stallNanos.add(System.nanoTime() - start);
+            }
+        }
+
+        // Readers see the full memtable either as the current one or as the flushing one
+        final List<PendingFlush> pending = new ArrayList<>(flushing.size() + 1);
+        pending.add(new PendingFlush(memTable, wal));
+        pending.addAll(flushing);
+        flushing = pending;
+        memTable = new MemTable(capacity);
+        // The buffered records of the full memtable are synced with the current log until it is flushed
+        wal.writeAll();
+        wal = nextLog();
+        writeController.update(memoryUsage(), compactionDebt);
+        flusher.execute(this::prepareLog);
+        flusher.execute(() -> {
+            try {
+                flushOldest();
+            } catch (IOException e) {
+                log.error("Can't flush memtable", e);
+                synchronized (this) {
+                    flushFailure = e;
+                    notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the oldest full memtable to a table and deletes its log.
+     */
+    private void flushOldest() throws IOException {
+        final PendingFlush oldest;
+        synchronized (this) {
+            if (flushing.isEmpty()) {
+                return;
+            }
+            oldest = flushing.get(flushing.size() - 1);
+        }
+
+        final SSTable table = flush(oldest.memTable);
+        record(table, List.of(oldest.wal.getFile()));
+        synchronized (this) {
+            // Readers see the flushed cells either in the memtable or in the table
+            add(table);
+            flushing = List.copyOf(flushing.subList(0, flushing.size() - 1));
+            flushFailure = null;
+            writeController.update(memoryUsage(), compactionDebt);
+            notifyAll();
+        }
+        oldest.wal.close();
+        Files.delete(oldest.wal.getFile());
+    }
+
+    /**
+     * Opens the tables recorded in the manifest on the startup pool of {@link Config#getOpenThreads()}.
+     * Opening maps the file and reads the footer and the range tombstones only, the index and the filter
+     * are paged in by the first lookups.
+     */
+    @NotNull
+    private List<SSTable> openTables(@NotNull final List<Manifest.TableEntry> entries) throws IOException {
+        final List<SSTable> result = new ArrayList<>(entries.size());
+        final int threads = Math.min(config.getOpenThreads(), entries.size());
+        if (threads <= 1) {
+            for (final Manifest.TableEntry entry : entries) {
+                final SSTable table = openTable(entry);
+                if (table != null) {
+                    result.add(table);
+                }
+            }
+            return result;
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lsm-open-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            final List<Future<SSTable>> futures = new ArrayList<>(entries.size());
+            for (final Manifest.TableEntry entry : entries) {
+                futures.add(pool.submit(() -> openTable(entry)));
+            }
+            for (final Future<SSTable> future : futures) {
+                final SSTable table = future.get();
+                if (table != null) {
+                    result.add(table);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening tables");
+        } catch (ExecutionException e) {
+            throw new IOException("Can't open tables", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Opens the table recorded in the manifest.
+     *
+     * @return the table or {@code null} if it is unreadable
+     */
+    @Nullable
+    private SSTable openTable(@NotNull final Manifest.TableEntry entry) {
+        final Path file = base.resolve(entry.getName());
+        try {
+            final SSTable table = SSTable.open(
+                    file,
+                    blockCache,
+                    entry.getFirstKey(),
+                    entry.getLastKey(),
+                    valueLog.attach(entry.getValueRefs()));
+            if (table.getGeneration() != entry.getGeneration() || table.getLevel() != entry.getLevel()) {
+                throw new IOException("Table doesn't match the manifest");
+            }
+            return table;
+        } catch (IOException e) {
+            log.warn("Skipping unreadable table {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the tables and finds the logs by the names of the files in the directory.
+     *
+     * @return the greatest id of a file or a generation
+     */
+    private long scan(
+            @NotNull final List<SSTable> opened,
+            @NotNull final List<Path> logs) throws IOException {
+        final SortedMap<Long, Path> found = new TreeMap<>();
+        long maxId = -1;
+        boolean values = false;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(base)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                if (TEMP_TABLE.matcher(name).matches()) {
+                    // Leftover of the interrupted flush or compaction
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                final Matcher logMatcher = LOG_FILE.matcher(name);
+                if (logMatcher.matches() && Files.isRegularFile(file)) {
+                    try {
+                        final long id = Long.parseLong(logMatcher.group(1));
+                        found.put(id, file);
+                        maxId = Math.max(maxId, id);
+                    } catch (NumberFormatException e) {
+                        log.warn("Skipping log with unsupported name {}", file);
+                    }
+                    continue;
+                }
+                final Matcher valueLogMatcher = VALUE_LOG.matcher(name);
+                if (valueLogMatcher.matches()) {
+                    try {
+                        maxId = Math.max(maxId, Long.parseLong(valueLogMatcher.group(1)));
+                        values = true;
+                    } catch (NumberFormatException e) {
+                        log.warn("Skipping value log with unsupported name {}", file);
+                    }
+                    continue;
+                }
+                final Matcher matcher = TABLE.matcher(name);
+                if (!matcher.matches() || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                final long id;
+                try {
+                    id = Long.parseLong(matcher.group(1));
+                } catch (NumberFormatException e) {
+                    log.warn("Skipping table with unsupported name {}", file);
+                    continue;
+                }
+                final SSTable table;
+                try {
+                    table = SSTable.open(file, blockCache);
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable table {}", file, e);
+                    continue;
+                }
+                opened.add(table);
+                maxId = Math.max(maxId, Math.max(id, table.getGeneration()));
+            }
+        }
+        if (values) {
+            // The references are not recorded without the manifest, so the pointers are counted
+            for (int i = 0; i < opened.size(); i++) {
+                final SSTable table = opened.get(i);
+                final ValueRefs refs = table.scanValueRefs();
+                if (!refs.isEmpty()) {
+                    opened.set(i, SSTable.open(table.getFile(), blockCache, null, null, valueLog.attach(refs)));
+                }
+            }
+        }
+        logs.addAll(found.values());
+        return maxId;
+    }
+
+    /**
+     * Deletes the files left by a crash: the temporary files and the tables and logs missing in the manifest.
+     * Only the files with the ids allocated before the storage was opened are checked,
+     * so the files being written are never touched.
+     *
+     * @param live  names of the files recorded in the manifest on open
+     * @param maxId the first id allocated after the storage was opened
+     */
+    private void deleteObsoleteFiles(
+            @NotNull final Set<String> live,
+            final long maxId) {
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(base)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                final Matcher matcher = FILE.matcher(name);
+                if (!matcher.matches() || live.contains(name)) {
+                    continue;
+                }
+                try {
+                    if (Long.parseLong(matcher.group(1)) < maxId && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a file of the storage
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Can't delete obsolete files", e);
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} obsolete files", deleted);
+        }
+    }
+
+    private static void shutdown(
+            @NotNull final ExecutorService executor,
+            @NotNull final String name) throws IOException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException(name + " didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + name, e);
+        }
+    }
+
+    /**
+     * Creates the log for the new memtable, the log is recorded in the manifest before it is created.
+     */
+    @NotNull
+    private WriteAheadLog createLog() throws IOException {
+        final Path file = base.resolve(nextId.getAndIncrement() + LOG);
+        manifest.apply(edit().addLog(file));
+        return WriteAheadLog.create(file, config.getDurability());
+    }
+
+    /**
+     * Takes the log created in advance or creates the log right away if the flusher hasn't prepared it yet.
+     */
+    @NotNull
+    private WriteAheadLog nextLog() throws IOException {
+        final WriteAheadLog spare = spareLog;
+        if (spare == null) {
+            return createLog();
+        }
+        spareLog = null;
+        return spare;
+    }
+
+    /**
+     * Creates the log for the next memtable on the flusher, a failure is left to the switch to report.
+     */
+    private void prepareLog() {
+        synchronized (this) {
+            if (spareLog != null) {
+                return;
+            }
+        }
+        try {
+            // The only thread creating the spare logs
+            final WriteAheadLog created = createLog();
+            synchronized (this) {
+                spareLog = created;
+            }
+        } catch (IOException e) {
+            log.warn("Can't create the log in advance", e);
+        }
+    }
+
+    /**
+     * Creates the empty manifest edit recording the ids allocated so far.
+     */
+    @NotNull
+    private Manifest.Edit edit() {
+        return new Manifest.Edit(nextId.get());
+    }
+
+    /**
+     * Replays the logs left by the crash into the memtable and persists it, so the logs are not needed anymore.
+     */
+    private void recover(@NotNull final Collection<Path> logs) throws IOException {
+        if (logs.isEmpty()) {
+            return;
+        }
+
+        final WriteAheadLog.Visitor visitor = new WriteAheadLog.Visitor() {
+            @Override
+            public void upsert(
+                    @NotNull final ByteBuffer key,
+                    @Nullable final ByteBuffer value) throws IOException {
+                put(key, value);
+            }
+
+            @Override
+            public void removeRange(
+                    @NotNull final ByteBuffer from,
+                    @NotNull final ByteBuffer to) throws IOException {
+                putRange(from, to);
+            }
+        };
+        for (final Path file : logs) {
+            // The log could be recorded but not created before the crash
+            if (Files.exists(file)) {
+                WriteAheadLog.replay(file, visitor);
+            }
+        }
+        publish(memTable.isEmpty() ? null : flush(memTable), logs);
+        memTable = new MemTable(config.getFlushThreshold());
+        for (final Path file : logs) {
+            Files.deleteIfExists(file);
+        }
+        log.info("Recovered {} logs", logs.size());
+    }
+
+    /**
+     * Forces the current log and the logs of the full memtables to the disk for {@link Config.Durability#PERIODIC}.
+     */
+    private void sync() {
+        try {
+            // The logs of the full memtables are lost by a crash until the memtables are flushed
+            for (final PendingFlush pending : flushing) {
+                pending.wal.sync();
+            }
+            wal.sync();
+        } catch (IOException e) {
+            log.error("Can't sync the log", e);
+        }
+    }
+
+    /**
+     * Writes the memtable to the new table of the first level.
+     */
+    @NotNull
+    private SSTable flush(@NotNull final MemTable memTable) throws IOException {
+        final long id = nextId.getAndIncrement();
+        return writeTable(
+                id,
+                id,
+                0,
+                memTable.size(),
+                memTable.iterator(ByteBuffer.allocate(0)),
+                memTable::rangeTombstones);
+    }
+
+    /**
+     * Records the flushed table in the manifest together with the logs it persists and adds it to the tree.
+     *
+     * @param table the table or {@code null} if the logs have nothing to flush
+     */
+    private void publish(
+            @Nullable final SSTable table,
+            @NotNull final Collection<Path> logs) throws IOException {
+        record(table, logs);
+        if (table != null) {
+            add(table);
+        }
+    }
+
+    /**
+     * Records the flushed table in the manifest together with the logs it persists.
+     * The manifest orders the edits itself, so the writers are not blocked while the edit is forced to the disk.
+     */
+    private void record(
+            @Nullable final SSTable table,
+            @NotNull final Collection<Path> logs) throws IOException {
+        final Manifest.Edit edit = edit();
+        if (table != null) {
+            edit.addTable(table);
+        }
+        logs.forEach(edit::removeLog);
+        manifest.apply(edit);
+    }
+
+    /**
+     * Adds the flushed table recorded in the manifest to the tree.
+     */
+    private synchronized void add(@NotNull final SSTable table) {
+        tables = tables.replace(List.of(), List.of(table));
+        metrics.flushes.increment();
+        metrics.bytesWritten.add(table.sizeInBytes());
+        compactionDebt = compactor.pendingBytes(tables);
+        compactor.schedule();
+    }
+
+    @NotNull
+    Tables tables() {
+        return tables;
+    }
+
+    /**
+     * Writes the cells to the new table file.
+     *
+     * @param generation   age of the data
+     * @param level        level of the table in the tree
+     * @param expectedKeys estimated number of cells to size the filter
+     * @param ranges       range tombstones of the table, evaluated once the cells are written
+     */
+    @NotNull
+    SSTable writeTable(
+            final long generation,
+            final int level,
+            final long expectedKeys,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Supplier<RangeTombstones> ranges) throws IOException {
+        return writeTable(nextId.getAndIncrement(), generation, level, expectedKeys, cells, ranges);
+    }
+
+    @NotNull
+    private SSTable writeTable(
+            final long id,
+            final long generation,
+            final int level,
+            final long expectedKeys,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Supplier<RangeTombstones> ranges) throws IOException {
+        final Path file = base.resolve(id + SUFFIX);
+        final Path temp = base.resolve(id + TEMP);
+        final int threshold = config.getValueSeparationThreshold();
+        final Set<Long> relocate = valueLog.garbage(tables, config.getValueLogGcRatio());
+        if (threshold == 0 && relocate.isEmpty()) {
+            SSTable.write(file, temp, config, generation, level, expectedKeys, cells, ranges);
+            return SSTable.open(file, blockCache);
+        }
+        try (ValueLog.Separator separator = valueLog.separator(cells, threshold, relocate, nextId::getAndIncrement)) {
+            try {
+                SSTable.write(file, temp, config, generation, level, expectedKeys, separator, ranges);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            final ValueRefs refs = separator.finish();
+            metrics.bytesWritten.add(separator.bytesWritten());
+            return SSTable.open(file, blockCache, null, null, valueLog.attach(refs));
+        }
+    }
+
+    /**
+     * Atomically substitutes the compacted tables with the result of their compaction.
+     * The edit is forced to the manifest before the storage lock is taken, so the writers are not blocked by the disk.
+     */
+    void replace(
+            @NotNull final List<SSTable> inputs,
+            @NotNull final List<SSTable> outputs) throws IOException {
+        final Manifest.Edit edit = edit();
+        inputs.forEach(edit::removeTable);
+        outputs.forEach(edit::addTable);
+        manifest.apply(edit);
+        synchronized (this) {
+            tables = tables.replace(inputs, outputs);
+            valueLog.release(inputs, tables);
+            metrics.compactions.increment();
+            for (final SSTable output : outputs) {
+                metrics.bytesWritten.add(output.sizeInBytes());
+            }
+            compactionDebt = compactor.pendingBytes(tables);
+            writeController.update(memoryUsage(), compactionDebt);
+            // Wake up the writers stalled by the compaction debt
+            notifyAll();
+        }
+    }
+
+    /**
+     * Point-in-time view of the storage.
+     * The current memtable is read up to the {@link MemTable#mark() mark} taken at the creation,
+     * the full memtables and the tables are immutable, so they are just retained by the snapshot.
+     * There is nothing to release, the retained sources are reclaimed once the snapshot is unreachable.
+     */
+    public final class Snapshot {
+        private final MemTable current;
+        private final int mark;
+        private final List<PendingFlush> pending;
+        private final Tables snapshot;
+
+        Snapshot(
+                @NotNull final MemTable current,
+                final int mark,
+                @NotNull final List<PendingFlush> pending,
+                @NotNull final Tables snapshot) {
+            this.current = current;
+            this.mark = mark;
+            this.pending = pending;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Obtains the value by the key as of the snapshot.
+         *
+         * @throws NoSuchElementException if there was no such record
+         */
+        @NotNull
+        public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
+            return lookup(key, current, mark, pending, snapshot);
+        }
+
+        /**
+         * Creates the not positioned cursor over the records as of the snapshot.
+         */
+        @NotNull
+        public Cursor cursor() {
+            return LSMDao.cursor(current, mark, pending, snapshot);
+        }
+
+        /**
+         * Iterates over the records as of the snapshot starting at the given key (inclusive).
+         */
+        @NotNull
+        public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
+            final Cursor cursor = cursor();
+            cursor.seek(from);
+            return new RecordIterator(cursor);
+        }
+
+        /**
+         * Iterates over the records as of the snapshot in {@code [from, to)}.
+         */
+        @NotNull
+        public Iterator<Record> range(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            if (to == null) {
+                return iterator(from);
+            }
+            if (from.compareTo(to) > 0) {
+                return Iters.empty();
+            }
+
+            final Record bound = Record.of(to, ByteBuffer.allocate(0));
+            return Iters.until(iterator(from), bound);
+        }
+
+        /**
+         * Iterates over the records as of the snapshot in descending order starting at the given key (inclusive).
+         */
+        @NotNull
+        public Iterator<Record> descendingIterator(@NotNull final ByteBuffer from) {
+            return records(descendingCells(from, current, mark, pending, snapshot));
+        }
+
+        /**
+         * Iterates over the records as of the snapshot in {@code [from, to)} in descending order.
+         */
+        @NotNull
+        public Iterator<Record> descendingRange(
+                @NotNull final ByteBuffer from,
+                @Nullable final ByteBuffer to) {
+            if (to != null && from.compareTo(to) >= 0) {
+                return Iters.empty();
+            }
+
+            final PeekingIterator<Record> records =
+                    Iterators.peekingIterator(records(descendingCells(to, current, mark, pending, snapshot)));
+            // The upper bound is exclusive
+            if (to != null && records.hasNext() && records.peek().getKey().equals(to)) {
+                records.next();
+            }
+            final Record bound = Record.of(from, ByteBuffer.allocate(0));
+            return Iters.downTo(records, bound);
+        }
+    }
+
+    @NotNull
+    private static Iterator<Record> records(@NotNull final Iterator<Cell> cells) {
+        return Iterators.transform(cells, cell -> Record.of(cell.getKey(), cell.getValue()));
+    }
+
+    /**
+     * Adapts the cursor to the iterator copying the keys only: the values are views of immutable memory,
+     * while the keys of the tables are restored into the reusable buffers.
+     */
+    private static final class RecordIterator implements Iterator<Record> {
+        private final Cursor cursor;
+
+        RecordIterator(@NotNull final Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.valid();
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more records");
+            }
+            final ByteBuffer key = cursor.key();
+            final ByteBuffer copy = ByteBuffer.allocate(key.remaining()).put(key).flip();
+            final Record result = Record.of(copy, cursor.value().slice());
+            cursor.next();
+            return result;
+        }
+    }
+
+    /**
+     * Full memtable waiting for the flush together with its log.
+     */
+    private static final class PendingFlush {
+        private final MemTable memTable;
+        private final WriteAheadLog wal;
+
+        PendingFlush(
+                @NotNull final MemTable memTable,
+                @NotNull final WriteAheadLog wal) {
+            this.memTable = memTable;
+            this.wal = wal;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps every level but the first one as a sorted run of non-overlapping tables.
+ *
+ * <p>Level {@code n > 0} targets {@code tableSize * ratio^n} bytes. The level exceeding its target the most
+ * is compacted first: the oldest tables of the first level (once there are enough of them) or a single table
+ * of a deeper level are merged with all the overlapping tables of the next level.
+ * Tables of a level are picked round-robin by key to spread the rewrites evenly.
+ * Tombstones are dropped once there are no deeper tables with the intersecting key ranges.
+ * If all the levels fit their targets, a table full of tombstones shadowing nothing is rewritten in place.
+ *
+ * @author tuzhms
+ */
+final class LeveledStrategy implements CompactionStrategy {
+    static final int MAX_LEVEL = 7;
+
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final long tableSize;
+    private final int ratio;
+    private final double tombstoneRatio;
+
+    /**
+     * The last key compacted from every level.
+     */
+    private final ByteBuffer[] pointers = new ByteBuffer[MAX_LEVEL];
+
+    LeveledStrategy(@NotNull final Config config) {
+        this.minThreshold = config.getCompactionMinThreshold();
+        this.maxThreshold = config.getCompactionMaxThreshold();
+        this.tableSize = config.getLevelTableSize();
+        this.ratio = config.getLevelSizeRatio();
+        this.tombstoneRatio = config.getTombstoneCompactionRatio();
+    }
+
+    @Nullable
+    @Override
+    public Compaction pick(
+            @NotNull final Tables tables,
+            @NotNull final Set<SSTable> busy) {
+        final int levels = Math.min(tables.levels(), MAX_LEVEL - 1);
+        final double[] scores = new double[levels];
+        scores[0] = (double) tables.level(0).size() / minThreshold;
+        double target = tableSize;
+        for (int level = 1; level < levels; level++) {
+            target *= ratio;
+            scores[level] = tables.sizeInBytes(level) / target;
+        }
+
+        // Try the levels from the most overflowed one
+        while (true) {
+            int level = 0;
+            for (int i = 1; i < levels; i++) {
+                if (scores[i] > scores[level]) {
+                    level = i;
+                }
+            }
+            if (scores[level] < 1.0) {
+                return CompactionStrategy.pickTombstones(tables, busy, tombstoneRatio, tableSize);
+            }
+            scores[level] = 0.0;
+
+            final Compaction result = level == 0 ? pickFirst(tables, busy) : pick(tables, busy, level);
+            if (result != null) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Counts the first level once it has enough tables to be merged and the excess of every deeper level
+     * rewritten together with the overlapping tables of the next level.
+     */
+    @Override
+    public long pendingBytes(@NotNull final Tables tables) {
+        long result = 0;
+        if (tables.level(0).size() >= minThreshold) {
+            result += tables.sizeInBytes(0);
+        }
+        double target = tableSize;
+        for (int level = 1; level < tables.levels(); level++) {
+            target *= ratio;
+            final double excess = tables.sizeInBytes(level) - target;
+            if (excess > 0) {
+                result += (long) (excess * (ratio + 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Picks the oldest tables of the first level unless it is already being compacted.
+     */
+    @Nullable
+    private Compaction pickFirst(
+            @NotNull final Tables tables,
+            @NotNull final Set<SSTable> busy) {
+        final List<SSTable> first = tables.level(0);
+        for (final SSTable table : first) {
+            if (busy.contains(table)) {
+                return null;
+            }
+        }
+        return merge(tables, busy, first.subList(Math.max(0, first.size() - maxThreshold), first.size()), 1);
+    }
+
+    /**
+     * Picks the next table of the level following the pointer.
+     */
+    @Nullable
+    private Compaction pick(
+            @NotNull final Tables tables,
+            @NotNull final Set<SSTable> busy,
+            final int level) {
+        final List<SSTable> candidates = tables.level(level);
+        int start = 0;
+        final ByteBuffer pointer = pointers[level];
+        if (pointer != null) {
+            while (start < candidates.size() && candidates.get(start).compareToRange(pointer) >= 0) {
+                start++;
+            }
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            final SSTable table = candidates.get((start + i) % candidates.size());
+            if (busy.contains(table)) {
+                continue;
+            }
+            final Compaction result = merge(tables, busy, List.of(table), level + 1);
+            if (result != null) {
+                // Don't retain the mapping of the table
+                final ByteBuffer maxKey = table.getMaxKey();
+                pointers[level] = maxKey == null ? null : ByteBuffer.allocate(maxKey.remaining()).put(maxKey).flip();
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges the tables with all the overlapping tables of the next level unless they are being compacted.
+     */
+    @Nullable
+    private Compaction merge(
+            @NotNull final Tables tables,
+            @NotNull final Set<SSTable> busy,
+            @NotNull final List<SSTable> upper,
+            final int level) {
+        final List<SSTable> inputs = new ArrayList<>(upper);
+        ByteBuffer from = minKey(upper);
+        ByteBuffer to = maxKey(upper);
+        if (from == null || to == null) {
+            // Nothing but empty tables
+            return new Compaction(inputs, level, tableSize, false);
+        }
+        for (final SSTable table : tables.level(level)) {
+            if (table.overlaps(from, to)) {
+                if (busy.contains(table)) {
+                    return null;
+                }
+                inputs.add(table);
+            }
+        }
+
+        // The tables of the next level may reach past the upper ones with the tombstones of their own,
+        // the key ranges include the range tombstones
+        from = minKey(inputs);
+        to = maxKey(inputs);
+
+        // Tombstones are needed only to shadow the older data of the deeper levels
+        boolean dropTombstones = true;
+        for (int i = level + 1; i < tables.levels() && dropTombstones; i++) {
+            for (final SSTable table : tables.level(i)) {
+                if (table.overlaps(from, to)) {
+                    dropTombstones = false;
+                    break;
+                }
+            }
+        }
+        return new Compaction(inputs, level, tableSize, dropTombstones);
+    }
+
+    /**
+     * Returns the least key of the tables or {@code null} if they are empty.
+     */
+    @Nullable
+    private static ByteBuffer minKey(@NotNull final List<SSTable> tables) {
+        ByteBuffer result = null;
+        for (final SSTable table : tables) {
+            final ByteBuffer min = table.getMinKey();
+            if (min != null && (result == null || min.compareTo(result) < 0)) {
+                result = min;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the greatest upper bound of the key ranges of the tables or {@code null} if they are empty.
+     */
+    @Nullable
+    private static ByteBuffer maxKey(@NotNull final List<SSTable> tables) {
+        ByteBuffer result = null;
+        for (final SSTable table : tables) {
+            final ByteBuffer max = table.getMaxKey();
+            if (max != null && (result == null || max.compareTo(result) > 0)) {
+                result = max;
+            }
+        }
+        return result;
+    }
+}
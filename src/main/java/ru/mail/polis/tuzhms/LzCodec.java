@@ -0,0 +1,205 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compression in the spirit of LZ4.
+ *
+ * <p>The output is a run of sequences {@code [token][literal length...][literals][offset][match length...]}.
+ * The high half of the token is the literal count and the low half is the match length minus
+ * {@value #MIN_MATCH}, the value {@code 15} of a half is followed by the bytes of the rest of the length
+ * up to the first byte less than {@code 255}. The offset is two bytes little-endian. The last sequence
+ * has literals only. Matches are found with a hash table of four-byte prefixes, the incompressible data
+ * is skipped with the growing step.
+ *
+ * @author tuzhms
+ */
+final class LzCodec implements BlockCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    private static final int HASH_MULTIPLIER = -1640531535;
+    private static final int RUN_MASK = 0x0F;
+    private static final int SKIP_SHIFT = 6;
+
+    /**
+     * Positions of the four-byte prefixes plus one, zero means no position.
+     */
+    private int[] table;
+
+    @Override
+    public byte getId() {
+        return LZ;
+    }
+
+    @Override
+    public int compress(
+            @NotNull final byte[] src,
+            final int length,
+            @NotNull final byte[] dst) {
+        if (table == null) {
+            table = new int[1 << HASH_BITS];
+        } else {
+            Arrays.fill(table, 0);
+        }
+
+        int out = 0;
+        int anchor = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= length) {
+            final int prefix = readInt(src, i);
+            final int hash = (prefix * HASH_MULTIPLIER) >>> (Integer.SIZE - HASH_BITS);
+            final int ref = table[hash] - 1;
+            table[hash] = i + 1;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != prefix) {
+                // Skip faster the longer nothing matches
+                i += 1 + ((i - anchor) >>> SKIP_SHIFT);
+                continue;
+            }
+
+            int match = MIN_MATCH;
+            while (i + match < length && src[ref + match] == src[i + match]) {
+                match++;
+            }
+            out = sequence(src, anchor, i - anchor, i - ref, match, dst, out);
+            if (out < 0) {
+                return -1;
+            }
+            i += match;
+            anchor = i;
+        }
+        if (anchor < length) {
+            out = sequence(src, anchor, length - anchor, 0, 0, dst, out);
+        }
+        return out;
+    }
+
+    @Override
+    public void decompress(
+            @NotNull final ByteBuffer src,
+            @NotNull final byte[] dst) throws IOException {
+        int in = src.position();
+        int out = 0;
+        try {
+            while (out < dst.length) {
+                final int token = src.get(in++) & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src.get(in++) & 0xFF;
+                        literals += b;
+                    } while (b == 0xFF);
+                }
+                for (int end = out + literals; out < end; out++) {
+                    dst[out] = src.get(in++);
+                }
+                if (out == dst.length) {
+                    break;
+                }
+
+                final int offset = (src.get(in++) & 0xFF) | (src.get(in++) & 0xFF) << Byte.SIZE;
+                int match = token & RUN_MASK;
+                if (match == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src.get(in++) & 0xFF;
+                        match += b;
+                    } while (b == 0xFF);
+                }
+                match += MIN_MATCH;
+                if (offset == 0 || offset > out) {
+                    throw new IOException("Invalid match offset: " + offset);
+                }
+                // Byte by byte since the match may overlap with itself
+                for (int end = out + match; out < end; out++) {
+                    dst[out] = dst[out - offset];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted block", e);
+        }
+    }
+
+    /**
+     * Writes the sequence.
+     *
+     * @param match match length or {@code 0} for the last sequence
+     * @return the new output position or {@code -1} if the sequence doesn't fit
+     */
+    private static int sequence(
+            @NotNull final byte[] src,
+            final int literalOffset,
+            final int literals,
+            final int offset,
+            final int match,
+            @NotNull final byte[] dst,
+            final int position) {
+        if (position == dst.length) {
+            return -1;
+        }
+
+        final int matchCode = match == 0 ? 0 : match - MIN_MATCH;
+        int out = position;
+        final int token = Math.min(literals, RUN_MASK) << 4 | Math.min(matchCode, RUN_MASK);
+        dst[out++] = (byte) token;
+        out = length(literals, dst, out);
+        if (out < 0 || out + literals > dst.length) {
+            return -1;
+        }
+        System.arraycopy(src, literalOffset, dst, out, literals);
+        out += literals;
+        if (match == 0) {
+            return out;
+        }
+
+        if (out + 2 > dst.length) {
+            return -1;
+        }
+        dst[out++] = (byte) offset;
+        dst[out++] = (byte) (offset >>> Byte.SIZE);
+        return length(matchCode, dst, out);
+    }
+
+    /**
+     * Writes the rest of the length which doesn't fit into the token.
+     *
+     * @return the new output position or {@code -1} if the length doesn't fit
+     */
+    private static int length(
+            final int length,
+            @NotNull final byte[] dst,
+            final int position) {
+        if (length < RUN_MASK) {
+            return position;
+        }
+        int out = position;
+        int rest = length - RUN_MASK;
+        while (rest >= 0xFF) {
+            if (out == dst.length) {
+                return -1;
+            }
+            dst[out++] = (byte) 0xFF;
+            rest -= 0xFF;
+        }
+        if (out == dst.length) {
+            return -1;
+        }
+        dst[out++] = (byte) rest;
+        return out;
+    }
+
+    private static int readInt(
+            @NotNull final byte[] src,
+            final int offset) {
+        return (src[offset] & 0xFF)
+                | (src[offset + 1] & 0xFF) << 8
+                | (src[offset + 2] & 0xFF) << 16
+                | (src[offset + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,496 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the {@link Edit version edits} describing the live files of the storage,
+ * so opening the storage reads neither the directory nor the unrelated files.
+ *
+ * <p>Every record is {@code [length][checksum][edit]} and the edit is
+ * {@code [next id][added tables][removed tables][added logs][removed logs]}, where every list
+ * is {@code [count][entries...]}. A table entry is
+ * {@code [name][generation][level][first key or -1][last key or -1]} with the keys of its cells,
+ * so the table is opened without reading its blocks. If any added table references the {@link ValueLog},
+ * the lists are followed by {@code [count][segment id][bytes]...} of {@link ValueRefs} for every added table.
+ * A torn or corrupted tail is ignored on replay.
+ * Every edit is forced to the disk before it is applied, so the files it removes may be deleted right after.
+ * The manifest is rewritten as a single edit once it grows too big and on open if it has a torn tail,
+ * so opening the storage usually costs a single read.
+ *
+ * @author tuzhms
+ */
+final class Manifest implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Manifest.class);
+
+    static final String NAME = "MANIFEST";
+    private static final String TEMP = "MANIFEST.tmp";
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final long MAX_SIZE = 4 * 1024 * 1024;
+
+    private final Path base;
+    private final CRC32C checksum = new CRC32C();
+
+    // Guarded by this
+    private final Map<String, TableEntry> tables = new LinkedHashMap<>();
+    /**
+     * Names of the logs in the order of creation, which is the order of replay.
+     */
+    private final Set<String> logs = new LinkedHashSet<>();
+    private long nextId;
+    private FileChannel channel;
+    private long size;
+    /**
+     * Failure leaving the file in unknown state, no edits are accepted after it.
+     */
+    @Nullable
+    private IOException failure;
+
+    private Manifest(@NotNull final Path base) {
+        this.base = base;
+    }
+
+    /**
+     * Checks whether the storage in the given directory has the manifest.
+     */
+    static boolean exists(@NotNull final Path base) {
+        return Files.isRegularFile(base.resolve(NAME));
+    }
+
+    /**
+     * Replays the manifest of the storage to append the new edits to.
+     */
+    @NotNull
+    static Manifest open(@NotNull final Path base) throws IOException {
+        final Manifest manifest = new Manifest(base);
+        final Path file = base.resolve(NAME);
+        final ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final CRC32C checksum = new CRC32C();
+        int offset = 0;
+        while (mapped.limit() - offset >= HEADER) {
+            final int length = mapped.getInt(offset);
+            if (length <= 0 || length > mapped.limit() - offset - HEADER) {
+                break;
+            }
+            final ByteBuffer body = Bytes.slice(mapped, offset + HEADER, length);
+            checksum.reset();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != mapped.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            final Edit edit;
+            try {
+                edit = Edit.read(body);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new IOException("Corrupted manifest edit at " + offset + " of " + file, e);
+            }
+            manifest.update(edit);
+            offset += HEADER + length;
+        }
+        if (offset < mapped.limit() || offset > MAX_SIZE) {
+            if (offset < mapped.limit()) {
+                log.warn("Ignoring {} bytes of the torn tail of {}", mapped.limit() - offset, file);
+            }
+            manifest.rewrite();
+        } else {
+            manifest.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            manifest.size = offset;
+        }
+        return manifest;
+    }
+
+    /**
+     * Creates the manifest of the storage with the given initial state.
+     */
+    @NotNull
+    static Manifest create(
+            @NotNull final Path base,
+            @NotNull final Edit initial) throws IOException {
+        final Manifest manifest = new Manifest(base);
+        manifest.update(initial);
+        manifest.rewrite();
+        return manifest;
+    }
+
+    synchronized long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Returns the live tables in no particular order.
+     */
+    @NotNull
+    synchronized List<TableEntry> getTables() {
+        return new ArrayList<>(tables.values());
+    }
+
+    /**
+     * Returns names of the live logs in the order of creation.
+     */
+    @NotNull
+    synchronized List<String> getLogs() {
+        return new ArrayList<>(logs);
+    }
+
+    /**
+     * Durably appends the edit and applies it.
+     */
+    synchronized void apply(@NotNull final Edit edit) throws IOException {
+        if (failure != null) {
+            throw new IOException("Manifest is broken", failure);
+        }
+        try {
+            write(channel, edit);
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        update(edit);
+        if (size > MAX_SIZE) {
+            rewrite();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void update(@NotNull final Edit edit) {
+        nextId = Math.max(nextId, edit.nextId);
+        for (final TableEntry table : edit.addedTables) {
+            tables.put(table.name, table);
+        }
+        edit.removedTables.forEach(tables::remove);
+        logs.addAll(edit.addedLogs);
+        edit.removedLogs.forEach(logs::remove);
+    }
+
+    /**
+     * Atomically replaces the manifest with the single edit describing the current state.
+     */
+    private void rewrite() throws IOException {
+        final Edit snapshot = new Edit(nextId);
+        snapshot.addedTables.addAll(tables.values());
+        snapshot.addedLogs.addAll(logs);
+
+        final Path temp = base.resolve(TEMP);
+        try (FileChannel out = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            size = 0;
+            write(out, snapshot);
+            out.force(false);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        final Path file = base.resolve(NAME);
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void write(
+            @NotNull final FileChannel out,
+            @NotNull final Edit edit) throws IOException {
+        final int length = edit.sizeInBytes();
+        final ByteBuffer record = ByteBuffer.allocate(HEADER + length);
+        record.position(HEADER);
+        edit.write(record);
+        checksum.reset();
+        checksum.update(record.flip().position(HEADER));
+        record.putInt(0, length).putInt(Integer.BYTES, (int) checksum.getValue()).rewind();
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+        size += HEADER + length;
+    }
+
+    @NotNull
+    private static String name(@NotNull final Path file) {
+        return file.getFileName().toString();
+    }
+
+    private static int sizeOf(@NotNull final String name) {
+        return Integer.BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static int sizeOf(@Nullable final ByteBuffer key) {
+        return Integer.BYTES + (key == null ? 0 : key.remaining());
+    }
+
+    private static void put(
+            @NotNull final ByteBuffer target,
+            @NotNull final String name) {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        target.putInt(bytes.length).put(bytes);
+    }
+
+    private static void put(
+            @NotNull final ByteBuffer target,
+            @Nullable final ByteBuffer key) {
+        if (key == null) {
+            target.putInt(-1);
+        } else {
+            target.putInt(key.remaining()).put(key.duplicate());
+        }
+    }
+
+    @NotNull
+    private static String getName(@NotNull final ByteBuffer source) {
+        final byte[] bytes = new byte[source.getInt()];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private static ByteBuffer getKey(@NotNull final ByteBuffer source) {
+        final int length = source.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        source.get(bytes);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Live table as recorded in the manifest.
+     */
+    static final class TableEntry {
+        private final String name;
+        private final long generation;
+        private final int level;
+        @Nullable
+        private final ByteBuffer firstKey;
+        @Nullable
+        private final ByteBuffer lastKey;
+        private final ValueRefs values;
+
+        private TableEntry(
+                @NotNull final String name,
+                final long generation,
+                final int level,
+                @Nullable final ByteBuffer firstKey,
+                @Nullable final ByteBuffer lastKey,
+                @NotNull final ValueRefs values) {
+            this.name = name;
+            this.generation = generation;
+            this.level = level;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+            this.values = values;
+        }
+
+        /**
+         * File name of the table within the storage directory.
+         */
+        @NotNull
+        String getName() {
+            return name;
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+
+        int getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns the first key of the cells or {@code null} if the table has range tombstones only.
+         */
+        @Nullable
+        ByteBuffer getFirstKey() {
+            return firstKey;
+        }
+
+        @Nullable
+        ByteBuffer getLastKey() {
+            return lastKey;
+        }
+
+        /**
+         * Returns the {@link ValueLog} segments referenced by the table without the mappings.
+         */
+        @NotNull
+        ValueRefs getValueRefs() {
+            return values;
+        }
+
+        private int sizeInBytes() {
+            return sizeOf(name) + Long.BYTES + Integer.BYTES + sizeOf(firstKey) + sizeOf(lastKey);
+        }
+
+        @NotNull
+        private TableEntry withValueRefs(@NotNull final ValueRefs refs) {
+            return new TableEntry(name, generation, level, firstKey, lastKey, refs);
+        }
+    }
+
+    /**
+     * Atomic change of the set of the live files.
+     */
+    static final class Edit {
+        private final long nextId;
+        private final List<TableEntry> addedTables = new ArrayList<>();
+        private final List<String> removedTables = new ArrayList<>();
+        private final List<String> addedLogs = new ArrayList<>();
+        private final List<String> removedLogs = new ArrayList<>();
+
+        /**
+         * Creates the empty edit.
+         *
+         * @param nextId the lowest file id which is not used yet
+         */
+        Edit(final long nextId) {
+            this.nextId = nextId;
+        }
+
+        @NotNull
+        Edit addTable(@NotNull final SSTable table) {
+            addedTables.add(
+                    new TableEntry(
+                            name(table.getFile()),
+                            table.getGeneration(),
+                            table.getLevel(),
+                            table.getFirstKey(),
+                            table.getLastKey(),
+                            table.getValueRefs()));
+            return this;
+        }
+
+        @NotNull
+        Edit removeTable(@NotNull final SSTable table) {
+            removedTables.add(name(table.getFile()));
+            return this;
+        }
+
+        @NotNull
+        Edit addLog(@NotNull final Path file) {
+            addedLogs.add(name(file));
+            return this;
+        }
+
+        @NotNull
+        Edit removeLog(@NotNull final Path file) {
+            removedLogs.add(name(file));
+            return this;
+        }
+
+        private int sizeInBytes() {
+            int size = Long.BYTES + 4 * Integer.BYTES;
+            for (final TableEntry table : addedTables) {
+                size += table.sizeInBytes();
+            }
+            for (final List<String> names : List.of(removedTables, addedLogs, removedLogs)) {
+                for (final String name : names) {
+                    size += sizeOf(name);
+                }
+            }
+            if (hasValueRefs()) {
+                for (final TableEntry table : addedTables) {
+                    size += Integer.BYTES + table.values.size() * 2 * Long.BYTES;
+                }
+            }
+            return size;
+        }
+
+        private boolean hasValueRefs() {
+            for (final TableEntry table : addedTables) {
+                if (!table.values.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void write(@NotNull final ByteBuffer target) {
+            target.putLong(nextId);
+            target.putInt(addedTables.size());
+            for (final TableEntry table : addedTables) {
+                put(target, table.name);
+                target.putLong(table.generation);
+                target.putInt(table.level);
+                put(target, table.firstKey);
+                put(target, table.lastKey);
+            }
+            for (final List<String> names : List.of(removedTables, addedLogs, removedLogs)) {
+                target.putInt(names.size());
+                for (final String name : names) {
+                    put(target, name);
+                }
+            }
+            if (hasValueRefs()) {
+                for (final TableEntry table : addedTables) {
+                    target.putInt(table.values.size());
+                    for (int i = 0; i < table.values.size(); i++) {
+                        target.putLong(table.values.id(i)).putLong(table.values.bytes(i));
+                    }
+                }
+            }
+        }
+
+        @NotNull
+        private static Edit read(@NotNull final ByteBuffer source) {
+            final Edit edit = new Edit(source.getLong());
+            final int added = source.getInt();
+            for (int i = 0; i < added; i++) {
+                edit.addedTables.add(
+                        new TableEntry(
+                                getName(source),
+                                source.getLong(),
+                                source.getInt(),
+                                getKey(source),
+                                getKey(source),
+                                ValueRefs.EMPTY));
+            }
+            for (final List<String> names : List.of(edit.removedTables, edit.addedLogs, edit.removedLogs)) {
+                final int count = source.getInt();
+                for (int i = 0; i < count; i++) {
+                    names.add(getName(source));
+                }
+            }
+            // The edits written before the value log have no references
+            if (source.hasRemaining()) {
+                for (int i = 0; i < added; i++) {
+                    final int count = source.getInt();
+                    final Map<Long, Long> references = new LinkedHashMap<>();
+                    for (int j = 0; j < count; j++) {
+                        references.put(source.getLong(), source.getLong());
+                    }
+                    edit.addedTables.set(i, edit.addedTables.get(i).withValueRefs(ValueRefs.of(references)));
+                }
+            }
+            return edit;
+        }
+    }
+}
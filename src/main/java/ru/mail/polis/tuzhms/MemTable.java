@@ -0,0 +1,647 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Write buffer of the storage: a skip list living in a single direct memory arena.
+ *
+ * <p>Nodes and values are appended to the arena and never moved, so the heap footprint
+ * doesn't depend on the amount of buffered data. Node layout:
+ * {@code [key length][value offset][height][back offset][next offsets...][key bytes]}.
+ * Value layout: {@code [previous value offset][value length or -1 for tombstone][value bytes]}.
+ * Offset {@code 0} is occupied by the head node and is used as a null link.
+ * The bottom level is doubly linked for the descending scans, the back link of the head points to the last node.
+ * Values are appended, so their offsets grow with time and serve as write sequence numbers
+ * to tell whether a value was written before or after a range tombstone or a {@link #mark() snapshot mark}.
+ * An update links the new value to the previous one instead of overwriting it, so a reader
+ * at a mark follows the chain to the newest value written before the mark.
+ * Range tombstones are few, so they live on the heap, each one takes a sequence number in the arena.
+ *
+ * <p>There is a single writer at a time (guarded by the owner), while readers may run
+ * concurrently: links and value offsets are published with release semantics.
+ * A back link is updated after the forward one, so a concurrent descending scan may miss the node
+ * being inserted, but never the ones inserted before the {@link #mark() mark} of its snapshot.
+ *
+ * @author tuzhms
+ */
+final class MemTable {
+    static final int ABSENT = -1;
+    /**
+     * Mark to read the newest values.
+     */
+    static final int LATEST = Integer.MAX_VALUE;
+
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private static final int MAX_HEIGHT = 12;
+    private static final int NULL = 0;
+    private static final int HEAD = 0;
+    private static final int TOMBSTONE = -1;
+
+    private static final int KEY_LENGTH = 0;
+    private static final int VALUE = KEY_LENGTH + Integer.BYTES;
+    private static final int HEIGHT = VALUE + Integer.BYTES;
+    private static final int BACK = HEIGHT + Integer.BYTES;
+    private static final int NEXT = BACK + Integer.BYTES;
+
+    private static final int PREVIOUS = 0;
+    private static final int LENGTH = PREVIOUS + Integer.BYTES;
+    private static final int VALUE_HEADER = LENGTH + Integer.BYTES;
+
+    private final ByteBuffer arena;
+    private final int[] prev = new int[MAX_HEIGHT];
+    private volatile int top;
+    private volatile int height = 1;
+    private volatile int count;
+    private volatile Range[] ranges = new Range[0];
+    private volatile RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+    private int rangeBytes;
+
+    /**
+     * Creates an empty memtable backed by the arena of the given size.
+     *
+     * @param capacity arena size in bytes
+     */
+    MemTable(final int capacity) {
+        if (capacity < nodeSize(MAX_HEIGHT, 0)) {
+            throw new IllegalArgumentException("Too small memtable: " + capacity);
+        }
+        this.arena = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        assert arena.alignmentOffset(0, Integer.BYTES) == 0;
+        this.arena.putInt(HEAD + HEIGHT, MAX_HEIGHT);
+        this.top = align(nodeSize(MAX_HEIGHT, 0));
+    }
+
+    /**
+     * Estimates arena space required to store the given entry in the worst case.
+     */
+    static int sizeOf(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        return align(nodeSize(MAX_HEIGHT, key.remaining()))
+                + align(VALUE_HEADER + (value == null ? 0 : value.remaining()));
+    }
+
+    /**
+     * Arena space required to store the given range tombstone.
+     */
+    static int sizeOfRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return from.remaining() + to.remaining() + Integer.BYTES;
+    }
+
+    /**
+     * Bytes of the arena occupied by nodes and values, including overwritten ones.
+     */
+    long sizeInBytes() {
+        return top + rangeBytes;
+    }
+
+    /**
+     * Bytes of the arena allocated for the memtable.
+     */
+    long capacity() {
+        return arena.capacity();
+    }
+
+    /**
+     * Number of distinct keys (tombstones included).
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the mark to read the memtable as of now, i.e. the sequence number of the next write.
+     * The owner must not write concurrently, so the mark doesn't split a batch.
+     */
+    int mark() {
+        return top;
+    }
+
+    /**
+     * Checks whether the arena has the given number of bytes left.
+     */
+    boolean hasRoom(final long bytes) {
+        return arena.capacity() - sizeInBytes() >= bytes;
+    }
+
+    boolean isEmpty() {
+        return count == 0 && ranges.length == 0;
+    }
+
+    /**
+     * Stores the value (or the tombstone if {@code value} is {@code null}) by the key.
+     *
+     * @return {@code false} if there is no room left in the arena
+     */
+    boolean put(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        if (!hasRoom(sizeOf(key, value))) {
+            return false;
+        }
+
+        int node = HEAD;
+        for (int level = height - 1; level >= 0; level--) {
+            int next = next(node, level);
+            while (next != NULL && compare(key, next) > 0) {
+                node = next;
+                next = next(node, level);
+            }
+            prev[level] = node;
+        }
+
+        final int candidate = next(node, 0);
+        if (candidate != NULL && compare(key, candidate) == 0) {
+            final int previous = arena.getInt(candidate + VALUE);
+            INT.setRelease(arena, candidate + VALUE, writeValue(value, previous));
+            return true;
+        }
+
+        final int nodeHeight = randomHeight();
+        final int keyLength = key.remaining();
+        final int created = allocate(nodeSize(nodeHeight, keyLength));
+        arena.putInt(created + KEY_LENGTH, keyLength);
+        arena.putInt(created + HEIGHT, nodeHeight);
+        Bytes.copy(key, arena, created + NEXT + nodeHeight * Integer.BYTES);
+        arena.putInt(created + VALUE, writeValue(value, NULL));
+
+        final int currentHeight = height;
+        for (int level = currentHeight; level < nodeHeight; level++) {
+            prev[level] = HEAD;
+        }
+        for (int level = 0; level < nodeHeight; level++) {
+            arena.putInt(link(created, level), next(prev[level], level));
+        }
+        arena.putInt(created + BACK, prev[0]);
+        final int successor = next(created, 0);
+        for (int level = 0; level < nodeHeight; level++) {
+            INT.setRelease(arena, link(prev[level], level), created);
+        }
+        // The head is the predecessor of the first node and the successor of the last one
+        INT.setRelease(arena, successor + BACK, created);
+        if (nodeHeight > currentHeight) {
+            height = nodeHeight;
+        }
+        count++;
+        return true;
+    }
+
+    /**
+     * Deletes the keys in {@code [from, to)} written before.
+     *
+     * @return {@code false} if there is no room left
+     */
+    boolean removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        if (!hasRoom(sizeOfRange(from, to))) {
+            return false;
+        }
+
+        final Range range = new Range(copy(from), copy(to), allocate(Integer.BYTES));
+        final Range[] updated = Arrays.copyOf(ranges, ranges.length + 1);
+        updated[ranges.length] = range;
+        rangeBytes += from.remaining() + to.remaining();
+        rangeTombstones = rangeTombstones.union(RangeTombstones.of(range.from, range.to));
+        ranges = updated;
+        return true;
+    }
+
+    /**
+     * Returns all the ranges deleted in the memtable.
+     */
+    @NotNull
+    RangeTombstones rangeTombstones() {
+        return rangeTombstones;
+    }
+
+    /**
+     * Returns the ranges deleted in the memtable before the mark.
+     */
+    @NotNull
+    RangeTombstones rangeTombstones(final int mark) {
+        final Range[] current = ranges;
+        if (current.length == 0 || current[current.length - 1].sequence < mark) {
+            return rangeTombstones;
+        }
+        RangeTombstones result = RangeTombstones.EMPTY;
+        for (final Range range : current) {
+            if (range.sequence < mark) {
+                result = result.union(RangeTombstones.of(range.from, range.to));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the key is deleted by a range tombstone written after the value and before the mark
+     * without allocations.
+     *
+     * @param value the value handle returned by {@link #find(ByteBuffer, int)} or {@link #ABSENT}
+     */
+    boolean isRangeDeleted(
+            @NotNull final ByteBuffer key,
+            final int value,
+            final int mark) {
+        for (final Range range : ranges) {
+            if (range.sequence < mark
+                    && (value == ABSENT || value < range.sequence)
+                    && range.from.compareTo(key) <= 0
+                    && key.compareTo(range.to) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the newest value stored by the key before the mark without allocations.
+     *
+     * @return the value handle to be used with {@link #isTombstone(int)} and {@link #value(int)}
+     *     or {@link #ABSENT} if there is no such key
+     */
+    int find(
+            @NotNull final ByteBuffer key,
+            final int mark) {
+        final int node = ceiling(key);
+        if (node == NULL || compare(key, node) != 0) {
+            return ABSENT;
+        }
+        return visible(node, mark);
+    }
+
+    /**
+     * Checks whether the value handle returned by {@link #find(ByteBuffer, int)} is a tombstone.
+     */
+    boolean isTombstone(final int value) {
+        return arena.getInt(value + LENGTH) == TOMBSTONE;
+    }
+
+    /**
+     * Returns read-only view of the value by the handle returned by {@link #find(ByteBuffer, int)}.
+     */
+    @NotNull
+    ByteBuffer value(final int value) {
+        return Bytes.slice(arena, value + VALUE_HEADER, arena.getInt(value + LENGTH));
+    }
+
+    /**
+     * Iterates over the newest cells starting at the given key (inclusive).
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return iterator(from, LATEST);
+    }
+
+    /**
+     * Iterates over cells as of the mark starting at the given key (inclusive).
+     * The keys written after the mark only are skipped.
+     */
+    @NotNull
+    Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            final int mark) {
+        return new CellIterator(ceiling(from), mark);
+    }
+
+    /**
+     * Creates the not positioned cursor over cells as of the mark.
+     */
+    @NotNull
+    CellCursor cursor(final int mark) {
+        return new ArenaCursor(mark);
+    }
+
+    /**
+     * Iterates over cells as of the mark in descending order starting at the given key (inclusive).
+     *
+     * @param from the first key or {@code null} to start at the last cell
+     */
+    @NotNull
+    Iterator<Cell> descendingIterator(
+            @Nullable final ByteBuffer from,
+            final int mark) {
+        return new DescendingCellIterator(from == null ? back(HEAD) : floor(from), mark);
+    }
+
+    /**
+     * Returns the newest value of the node written before the mark or {@link #ABSENT}.
+     */
+    private int visible(
+            final int node,
+            final int mark) {
+        int value = (int) INT.getAcquire(arena, node + VALUE);
+        while (value >= mark) {
+            value = arena.getInt(value + PREVIOUS);
+            if (value == NULL) {
+                return ABSENT;
+            }
+        }
+        return value;
+    }
+
+    private int ceiling(@NotNull final ByteBuffer key) {
+        int node = HEAD;
+        for (int level = height - 1; level >= 0; level--) {
+            int next = next(node, level);
+            while (next != NULL && compare(key, next) > 0) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return next(node, 0);
+    }
+
+    /**
+     * Returns the last node not greater than the key or {@link #NULL}.
+     */
+    private int floor(@NotNull final ByteBuffer key) {
+        int node = HEAD;
+        for (int level = height - 1; level >= 0; level--) {
+            int next = next(node, level);
+            while (next != NULL && compare(key, next) >= 0) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return node;
+    }
+
+    private int writeValue(
+            @Nullable final ByteBuffer value,
+            final int previous) {
+        final int length = value == null ? 0 : value.remaining();
+        final int offset = allocate(VALUE_HEADER + length);
+        arena.putInt(offset + PREVIOUS, previous);
+        if (value == null) {
+            arena.putInt(offset + LENGTH, TOMBSTONE);
+        } else {
+            arena.putInt(offset + LENGTH, length);
+            Bytes.copy(value, arena, offset + VALUE_HEADER);
+        }
+        return offset;
+    }
+
+    private int allocate(final int size) {
+        final int offset = top;
+        top = align(offset + size);
+        return offset;
+    }
+
+    private int compare(
+            @NotNull final ByteBuffer key,
+            final int node) {
+        return Bytes.compare(key, arena, keyOffset(node), arena.getInt(node + KEY_LENGTH));
+    }
+
+    private int next(
+            final int node,
+            final int level) {
+        return (int) INT.getAcquire(arena, link(node, level));
+    }
+
+    private int back(final int node) {
+        return (int) INT.getAcquire(arena, node + BACK);
+    }
+
+    private int keyOffset(final int node) {
+        return node + NEXT + arena.getInt(node + HEIGHT) * Integer.BYTES;
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+        result.put(buffer.duplicate());
+        return result.flip();
+    }
+
+    /**
+     * Returns the cell by the node and its visible value, the values deleted by a range are turned into tombstones.
+     */
+    @NotNull
+    private Cell cell(
+            final int node,
+            final int value,
+            final int mark) {
+        final ByteBuffer key = Bytes.slice(arena, keyOffset(node), arena.getInt(node + KEY_LENGTH));
+        final int length = arena.getInt(value + LENGTH);
+        if (length == TOMBSTONE || isRangeDeleted(key, value, mark)) {
+            return new Cell(key, null);
+        }
+        return new Cell(key, Bytes.slice(arena, value + VALUE_HEADER, length));
+    }
+
+    private static int link(
+            final int node,
+            final int level) {
+        return node + NEXT + level * Integer.BYTES;
+    }
+
+    private static int nodeSize(
+            final int height,
+            final int keyLength) {
+        return NEXT + height * Integer.BYTES + keyLength;
+    }
+
+    private static int align(final int offset) {
+        return (offset + Integer.BYTES - 1) & -Integer.BYTES;
+    }
+
+    private static int randomHeight() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        int result = 1;
+        while (result < MAX_HEIGHT && (random.nextInt() & 3) == 0) {
+            result++;
+        }
+        return result;
+    }
+
+    private static final class Range {
+        private final ByteBuffer from;
+        private final ByteBuffer to;
+        /**
+         * Values with lower offsets are deleted.
+         */
+        private final int sequence;
+
+        Range(
+                @NotNull final ByteBuffer from,
+                @NotNull final ByteBuffer to,
+                final int sequence) {
+            this.from = from;
+            this.to = to;
+            this.sequence = sequence;
+        }
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final int mark;
+        private int node;
+        private int value;
+
+        CellIterator(
+                final int node,
+                final int mark) {
+            this.mark = mark;
+            this.node = node;
+            settle();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != NULL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = cell(node, value, mark);
+            node = MemTable.this.next(node, 0);
+            settle();
+            return result;
+        }
+
+        /**
+         * Skips the nodes without values written before the mark.
+         */
+        private void settle() {
+            while (node != NULL) {
+                value = visible(node, mark);
+                if (value != ABSENT) {
+                    return;
+                }
+                node = MemTable.this.next(node, 0);
+            }
+        }
+    }
+
+    /**
+     * Cursor with the views of the arena moved from cell to cell.
+     * The views are repositioned on every access in case the caller moved them.
+     */
+    private final class ArenaCursor implements CellCursor {
+        private final int mark;
+        private final ByteBuffer key = arena.asReadOnlyBuffer();
+        private final ByteBuffer value = arena.asReadOnlyBuffer();
+        private int node = NULL;
+        private int keyOffset;
+        private int keyLength;
+        private int valueOffset;
+        private int valueLength;
+        private boolean tombstone;
+
+        ArenaCursor(final int mark) {
+            this.mark = mark;
+        }
+
+        @Override
+        public void seek(@NotNull final ByteBuffer target) {
+            node = ceiling(target);
+            settle();
+        }
+
+        @Override
+        public boolean isValid() {
+            return node != NULL;
+        }
+
+        @Override
+        public void next() {
+            node = MemTable.this.next(node, 0);
+            settle();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            key.limit(keyOffset + keyLength).position(keyOffset);
+            return key;
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return tombstone;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            value.limit(valueOffset + valueLength).position(valueOffset);
+            return value;
+        }
+
+        /**
+         * Skips the nodes without values written before the mark and moves the views to the current cell.
+         */
+        private void settle() {
+            while (node != NULL) {
+                final int visible = visible(node, mark);
+                if (visible != ABSENT) {
+                    keyOffset = keyOffset(node);
+                    keyLength = arena.getInt(node + KEY_LENGTH);
+                    valueOffset = visible + VALUE_HEADER;
+                    valueLength = arena.getInt(visible + LENGTH);
+                    tombstone = valueLength == TOMBSTONE || isRangeDeleted(key(), visible, mark);
+                    return;
+                }
+                node = MemTable.this.next(node, 0);
+            }
+        }
+    }
+
+    private final class DescendingCellIterator implements Iterator<Cell> {
+        private final int mark;
+        private int node;
+        private int value;
+
+        DescendingCellIterator(
+                final int node,
+                final int mark) {
+            this.mark = mark;
+            this.node = node;
+            settle();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != NULL;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = cell(node, value, mark);
+            node = back(node);
+            settle();
+            return result;
+        }
+
+        private void settle() {
+            while (node != NULL) {
+                value = visible(node, mark);
+                if (value != ABSENT) {
+                    return;
+                }
+                node = back(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Cursor;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges the cursors over the sources into the cursor over the freshest live cells.
+ *
+ * <p>It is the cursor counterpart of {@link ru.mail.polis.Iters#merge}: a binary heap of the source indices
+ * ordered by their current keys and then by the indices, the sources are given from the newest to the oldest.
+ * The key of the winner is copied into the reusable buffer to skip its older versions,
+ * so the steps allocate nothing.
+ *
+ * @author tuzhms
+ */
+final class MergeCursor implements Cursor {
+    private final CellCursor[] sources;
+    private final int[] heap;
+    private int size;
+    private ByteBuffer last = ByteBuffer.allocate(64);
+
+    MergeCursor(@NotNull final List<CellCursor> sources) {
+        this.sources = sources.toArray(new CellCursor[0]);
+        this.heap = new int[this.sources.length];
+    }
+
+    @Override
+    public void seek(@NotNull final ByteBuffer key) {
+        size = 0;
+        for (int i = 0; i < sources.length; i++) {
+            sources[i].seek(key);
+            if (sources[i].isValid()) {
+                heap[size++] = i;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        settle();
+    }
+
+    @Override
+    public boolean valid() {
+        return size > 0;
+    }
+
+    @Override
+    public void next() {
+        check();
+        skip();
+        settle();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer key() {
+        check();
+        return sources[heap[0]].key();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer value() {
+        check();
+        return sources[heap[0]].value();
+    }
+
+    private void check() {
+        if (size == 0) {
+            throw new NoSuchElementException("Cursor is not positioned at a record");
+        }
+    }
+
+    /**
+     * Skips the tombstones.
+     */
+    private void settle() {
+        while (size > 0 && sources[heap[0]].isTombstone()) {
+            skip();
+        }
+    }
+
+    /**
+     * Moves past the current key in all the sources.
+     */
+    private void skip() {
+        remember(sources[heap[0]].key());
+        step();
+        while (size > 0 && sources[heap[0]].key().equals(last)) {
+            step();
+        }
+    }
+
+    private void remember(@NotNull final ByteBuffer key) {
+        final int length = key.remaining();
+        if (last.capacity() < length) {
+            last = ByteBuffer.allocate(Math.max(length, last.capacity() * 2));
+        }
+        last.clear();
+        for (int i = 0; i < length; i++) {
+            last.put(i, key.get(key.position() + i));
+        }
+        last.limit(length);
+    }
+
+    /**
+     * Moves the top cursor to its next cell.
+     */
+    private void step() {
+        final CellCursor top = sources[heap[0]];
+        top.next();
+        if (!top.isValid()) {
+            heap[0] = heap[--size];
+        }
+        siftDown(0);
+    }
+
+    private void siftDown(final int from) {
+        int i = from;
+        final int item = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], item)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = item;
+    }
+
+    private boolean less(
+            final int left,
+            final int right) {
+        final int cmp = sources[left].key().compareTo(sources[right].key());
+        return cmp < 0 || cmp == 0 && left < right;
+    }
+}
@@ -0,0 +1,163 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latencies and amplification counters of {@link LSMDao} exposed via JMX.
+ * Recording doesn't lock and doesn't allocate, so it is always on.
+ *
+ * @author tuzhms
+ */
+final class Metrics implements EngineMXBean {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+    private static final String DOMAIN = "ru.mail.polis.tuzhms";
+
+    final Histogram get = new Histogram();
+    final Histogram upsert = new Histogram();
+    final Histogram remove = new Histogram();
+    final Histogram iterator = new Histogram();
+    final Histogram tablesProbed = new Histogram();
+
+    final LongAdder flushes = new LongAdder();
+    final LongAdder compactions = new LongAdder();
+    final LongAdder bytesIngested = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder stalls = new LongAdder();
+    final LongAdder stallNanos = new LongAdder();
+    final LongAdder delays = new LongAdder();
+    final LongAdder delayNanos = new LongAdder();
+
+    @NotNull
+    EngineStats stats() {
+        return new EngineStats(
+                get.stats(),
+                upsert.stats(),
+                remove.stats(),
+                iterator.stats(),
+                tablesProbed.stats(),
+                flushes.sum(),
+                compactions.sum(),
+                bytesIngested.sum(),
+                bytesWritten.sum(),
+                stalls.sum(),
+                stallNanos.sum(),
+                delays.sum(),
+                delayNanos.sum());
+    }
+
+    /**
+     * Registers the metrics of the storage in the given directory in the platform MBean server.
+     *
+     * @return the name to {@link #unregister} or {@code null} if the registration failed
+     */
+    @Nullable
+    ObjectName register(@NotNull final Path base) {
+        try {
+            final ObjectName name = new ObjectName(
+                    DOMAIN + ":type=LSMDao,name=" + ObjectName.quote(base.toAbsolutePath().toString()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException e) {
+            // Another instance over the same directory, the metrics are still available via the DAO
+            log.warn("Can't register the metrics of {}", base, e);
+            return null;
+        }
+    }
+
+    static void unregister(@Nullable final ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            log.warn("Can't unregister {}", name, e);
+        }
+    }
+
+    @Override
+    public HistogramStats getGetLatency() {
+        return get.stats();
+    }
+
+    @Override
+    public HistogramStats getUpsertLatency() {
+        return upsert.stats();
+    }
+
+    @Override
+    public HistogramStats getRemoveLatency() {
+        return remove.stats();
+    }
+
+    @Override
+    public HistogramStats getIteratorLatency() {
+        return iterator.stats();
+    }
+
+    @Override
+    public HistogramStats getTablesProbed() {
+        return tablesProbed.stats();
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    @Override
+    public long getBytesIngested() {
+        return bytesIngested.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        return stats().getWriteAmplification();
+    }
+
+    @Override
+    public double getReadAmplification() {
+        return tablesProbed.stats().getMean();
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    @Override
+    public long getStallNanos() {
+        return stallNanos.sum();
+    }
+
+    @Override
+    public long getDelays() {
+        return delays.sum();
+    }
+
+    @Override
+    public long getDelayNanos() {
+        return delayNanos.sum();
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Stores blocks as is.
+ *
+ * @author tuzhms
+ */
+final class NoneCodec implements BlockCodec {
+    @Override
+    public byte getId() {
+        return NONE;
+    }
+
+    /**
+     * Never compresses anything, so the block is stored as is.
+     */
+    @Override
+    public int compress(
+            @NotNull final byte[] src,
+            final int length,
+            @NotNull final byte[] dst) {
+        return -1;
+    }
+
+    @Override
+    public void decompress(
+            @NotNull final ByteBuffer src,
+            @NotNull final byte[] dst) throws IOException {
+        if (src.remaining() != dst.length) {
+            throw new IOException("Block length mismatch: " + src.remaining() + " != " + dst.length);
+        }
+        src.duplicate().get(dst);
+    }
+}
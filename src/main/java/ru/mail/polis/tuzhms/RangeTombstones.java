@@ -0,0 +1,344 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Immutable set of deleted key ranges {@code [from, to)} stored as sorted disjoint intervals.
+ *
+ * <p>Range tombstones of a source shadow the cells of the older sources only:
+ * the cells of the same source are either newer or already deleted.
+ *
+ * @author tuzhms
+ */
+final class RangeTombstones {
+    static final RangeTombstones EMPTY = new RangeTombstones(new ByteBuffer[0], new ByteBuffer[0]);
+
+    private final ByteBuffer[] froms;
+    private final ByteBuffer[] tos;
+
+    /**
+     * Creates the set from sorted disjoint intervals.
+     */
+    RangeTombstones(
+            @NotNull final ByteBuffer[] froms,
+            @NotNull final ByteBuffer[] tos) {
+        this.froms = froms;
+        this.tos = tos;
+    }
+
+    /**
+     * Creates the set of a single interval, empty if {@code from >= to}.
+     */
+    @NotNull
+    static RangeTombstones of(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        if (from.compareTo(to) >= 0) {
+            return EMPTY;
+        }
+        return new RangeTombstones(new ByteBuffer[]{from}, new ByteBuffer[]{to});
+    }
+
+    boolean isEmpty() {
+        return froms.length == 0;
+    }
+
+    /**
+     * Number of intervals.
+     */
+    int size() {
+        return froms.length;
+    }
+
+    @NotNull
+    ByteBuffer from(final int index) {
+        return froms[index].duplicate();
+    }
+
+    @NotNull
+    ByteBuffer to(final int index) {
+        return tos[index].duplicate();
+    }
+
+    /**
+     * Checks whether the key is deleted without allocations.
+     */
+    boolean covers(@NotNull final ByteBuffer key) {
+        return covering(key) >= 0;
+    }
+
+    /**
+     * Returns index of the interval containing the key or {@code -1}.
+     */
+    private int covering(@NotNull final ByteBuffer key) {
+        // The last interval starting not after the key
+        int left = 0;
+        int right = froms.length - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (froms[mid].compareTo(key) <= 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return right >= 0 && key.compareTo(tos[right]) < 0 ? right : -1;
+    }
+
+    /**
+     * Returns the set of keys deleted by either of the sets.
+     */
+    @NotNull
+    RangeTombstones union(@NotNull final RangeTombstones other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        final List<ByteBuffer> resultFroms = new ArrayList<>(froms.length + other.froms.length);
+        final List<ByteBuffer> resultTos = new ArrayList<>(froms.length + other.froms.length);
+        int i = 0;
+        int j = 0;
+        while (i < froms.length || j < other.froms.length) {
+            final ByteBuffer from;
+            final ByteBuffer to;
+            if (j == other.froms.length || i < froms.length && froms[i].compareTo(other.froms[j]) <= 0) {
+                from = froms[i];
+                to = tos[i++];
+            } else {
+                from = other.froms[j];
+                to = other.tos[j++];
+            }
+
+            // Coalesce the intersecting and adjacent intervals
+            final int last = resultTos.size() - 1;
+            if (last >= 0 && from.compareTo(resultTos.get(last)) <= 0) {
+                if (to.compareTo(resultTos.get(last)) > 0) {
+                    resultTos.set(last, to);
+                }
+            } else {
+                resultFroms.add(from);
+                resultTos.add(to);
+            }
+        }
+        return new RangeTombstones(resultFroms.toArray(new ByteBuffer[0]), resultTos.toArray(new ByteBuffer[0]));
+    }
+
+    /**
+     * Returns the intersection of the set with {@code [lower, upper)}.
+     *
+     * @param lower inclusive bound or {@code null} if unbounded
+     * @param upper exclusive bound or {@code null} if unbounded
+     */
+    @NotNull
+    RangeTombstones clip(
+            @Nullable final ByteBuffer lower,
+            @Nullable final ByteBuffer upper) {
+        final List<ByteBuffer> resultFroms = new ArrayList<>(froms.length);
+        final List<ByteBuffer> resultTos = new ArrayList<>(froms.length);
+        for (int i = 0; i < froms.length; i++) {
+            final ByteBuffer from = lower != null && froms[i].compareTo(lower) < 0 ? lower : froms[i];
+            final ByteBuffer to = upper != null && tos[i].compareTo(upper) > 0 ? upper : tos[i];
+            if (from.compareTo(to) < 0) {
+                resultFroms.add(from);
+                resultTos.add(to);
+            }
+        }
+        return new RangeTombstones(resultFroms.toArray(new ByteBuffer[0]), resultTos.toArray(new ByteBuffer[0]));
+    }
+
+    /**
+     * Drops the cells deleted by the set from the older source jumping over the deleted ranges.
+     *
+     * @param seek opens the source at the given key
+     * @param from the first key (inclusive)
+     */
+    @NotNull
+    Iterator<Cell> filter(
+            @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+            @NotNull final ByteBuffer from) {
+        if (isEmpty()) {
+            return seek.apply(from);
+        }
+        return new FilterIterator(seek, seek.apply(from));
+    }
+
+    /**
+     * Drops the cells deleted by the set from the cursor over the older source jumping over the deleted ranges.
+     */
+    @NotNull
+    CellCursor filter(@NotNull final CellCursor source) {
+        if (isEmpty()) {
+            return source;
+        }
+        return new FilterCursor(source);
+    }
+
+    /**
+     * Drops the cells deleted by the set from the older source iterated in descending order
+     * jumping over the deleted ranges.
+     *
+     * @param seek opens the descending source at the given key or at the last cell if the key is {@code null}
+     * @param from the first key (inclusive) or {@code null} to start at the last cell
+     */
+    @NotNull
+    Iterator<Cell> descendingFilter(
+            @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+            @Nullable final ByteBuffer from) {
+        if (isEmpty()) {
+            return seek.apply(from);
+        }
+        return new DescendingFilterIterator(seek, seek.apply(from));
+    }
+
+    private final class FilterIterator implements Iterator<Cell> {
+        private final Function<ByteBuffer, Iterator<Cell>> seek;
+        private Iterator<Cell> iterator;
+        @Nullable
+        private Cell next;
+
+        FilterIterator(
+                @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+                @NotNull final Iterator<Cell> iterator) {
+            this.seek = seek;
+            this.iterator = iterator;
+            this.next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = next;
+            next = advance();
+            return result;
+        }
+
+        @Nullable
+        private Cell advance() {
+            while (iterator.hasNext()) {
+                final Cell cell = iterator.next();
+                final int range = covering(cell.getKey());
+                if (range < 0) {
+                    return cell;
+                }
+                iterator = seek.apply(tos[range].duplicate());
+            }
+            return null;
+        }
+    }
+
+    private final class FilterCursor implements CellCursor {
+        private final CellCursor source;
+
+        FilterCursor(@NotNull final CellCursor source) {
+            this.source = source;
+        }
+
+        @Override
+        public void seek(@NotNull final ByteBuffer key) {
+            source.seek(key);
+            settle();
+        }
+
+        @Override
+        public boolean isValid() {
+            return source.isValid();
+        }
+
+        @Override
+        public void next() {
+            source.next();
+            settle();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return source.key();
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return source.isTombstone();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return source.value();
+        }
+
+        private void settle() {
+            while (source.isValid()) {
+                final int range = covering(source.key());
+                if (range < 0) {
+                    return;
+                }
+                source.seek(tos[range]);
+            }
+        }
+    }
+
+    private final class DescendingFilterIterator implements Iterator<Cell> {
+        private final Function<ByteBuffer, Iterator<Cell>> seek;
+        private Iterator<Cell> iterator;
+        @Nullable
+        private Cell next;
+
+        DescendingFilterIterator(
+                @NotNull final Function<ByteBuffer, Iterator<Cell>> seek,
+                @NotNull final Iterator<Cell> iterator) {
+            this.seek = seek;
+            this.iterator = iterator;
+            this.next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = next;
+            next = advance();
+            return result;
+        }
+
+        @Nullable
+        private Cell advance() {
+            while (iterator.hasNext()) {
+                final Cell cell = iterator.next();
+                final int range = covering(cell.getKey());
+                if (range < 0) {
+                    return cell;
+                }
+                // The start of the range is deleted too, so the source is reopened at it and the cell is skipped
+                if (cell.getKey().compareTo(froms[range]) != 0) {
+                    iterator = seek.apply(froms[range].duplicate());
+                }
+            }
+            return null;
+        }
+    }
+}
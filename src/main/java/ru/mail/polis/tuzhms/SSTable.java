@@ -0,0 +1,862 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Immutable sorted table flushed to disk.
+ *
+ * <p>File layout: {@code [data blocks...][index][filter][footer]}.
+ * Every block is {@code [codec][length][payload]} where the payload is encoded by the {@link BlockCodec}
+ * with the given identifier and decodes to {@code length} bytes of prefix-compressed cells
+ * (see {@link BlockCursor}).
+ * The index consists of fixed-size entries
+ * {@code [block offset][live cell count][separator offset][separator length]}
+ * followed by the separator keys (see {@link SSTableWriter}), the {@link RangeTombstones}
+ * {@code [from length][from bytes][to length][to bytes]} and the {@link BloomFilter} bits.
+ * The footer is {@code [generation][level][index offset][block count][cell count][tombstone count]
+ * [range tombstones offset][range tombstone count][filter offset][filter hashes][magic]}.
+ * Generation defines the age of the data within the first level: a table shadows all the tables
+ * with lower generations. Range tombstones of a table shadow the older tables only.
+ * Tables of the deeper levels are older than the ones of the upper levels
+ * (see {@link Tables}).
+ *
+ * <p>The file is memory-mapped, so seeking costs a binary search over the index
+ * and over the restart points of a single block followed by a short scan without any syscalls.
+ * Uncompressed blocks are read right from the mapping, compressed ones are decoded to the heap
+ * on every read unless they are kept decoded in the shared {@link BlockCache}.
+ * The filter is queried right in the mapping too. Blocks without live cells are skipped at once
+ * by the iterators which don't need tombstones.
+ *
+ * <p>Large values may be stored in the {@link ValueLog} with the pointers in the cells (see {@link BlockCursor}).
+ * The table resolves the pointers through the mappings of the segments it references, see {@link ValueRefs},
+ * only {@link #rawIterator(ByteBuffer)} returns the pointers as they are.
+ *
+ * @author tuzhms
+ */
+final class SSTable {
+    static final int TOMBSTONE = -1;
+    /**
+     * Encoded value length of a cell with the {@link ValueLog} pointer in place of the value.
+     */
+    static final int POINTER = -1;
+    static final int MAGIC = 0x4C534D39;
+    static final int BLOCK_HEADER = 1 + Integer.BYTES;
+
+    private static final int INDEX_ENTRY = 4 * Integer.BYTES;
+    private static final int LIVE_CELLS = Integer.BYTES;
+    private static final int SEPARATOR_OFFSET = 2 * Integer.BYTES;
+    private static final int SEPARATOR_LENGTH = 3 * Integer.BYTES;
+    private static final int FOOTER = 8 * Integer.BYTES + 3 * Long.BYTES;
+    /**
+     * Cursor reused by the lookups of the thread, so {@link #find(ByteBuffer)} allocates nothing but the value.
+     */
+    private static final ThreadLocal<BlockCursor> LOOKUP = new ThreadLocal<>();
+
+    private final Path file;
+    private final long bytes;
+    private final long generation;
+    private final int level;
+    private final ByteBuffer data;
+    private final ByteBuffer index;
+    private final ByteBuffer separators;
+    @Nullable
+    private final BloomFilter filter;
+    private final int blocks;
+    private final long cells;
+    private final long tombstones;
+    private final RangeTombstones ranges;
+    private final ValueRefs values;
+    @Nullable
+    private final ByteBuffer firstKey;
+    @Nullable
+    private final ByteBuffer minKey;
+    @Nullable
+    private final ByteBuffer maxKey;
+    @Nullable
+    private final ByteBuffer rangesEnd;
+    @Nullable
+    private final BlockCache cache;
+    @Nullable
+    private final AtomicReferenceArray<BlockCache.Entry> slots;
+
+    private SSTable(
+            @NotNull final Path file,
+            final long bytes,
+            final long generation,
+            final int level,
+            @NotNull final ByteBuffer data,
+            @NotNull final ByteBuffer index,
+            @NotNull final ByteBuffer separators,
+            @Nullable final BloomFilter filter,
+            final int blocks,
+            final long cells,
+            final long tombstones,
+            @NotNull final RangeTombstones ranges,
+            @NotNull final ValueRefs values,
+            @Nullable final BlockCache cache,
+            @Nullable final ByteBuffer firstKey,
+            @Nullable final ByteBuffer lastKey) throws IOException {
+        this.file = file;
+        this.bytes = bytes;
+        this.generation = generation;
+        this.level = level;
+        this.data = data;
+        this.index = index;
+        this.separators = separators;
+        this.filter = filter;
+        this.blocks = blocks;
+        this.cells = cells;
+        this.tombstones = tombstones;
+        this.ranges = ranges;
+        this.values = values;
+        this.cache = cache;
+        this.slots = cache == null ? null : BlockCache.slots(blocks);
+        if (blocks == 0) {
+            this.firstKey = null;
+            this.maxKey = null;
+        } else if (firstKey != null && lastKey != null) {
+            this.firstKey = firstKey;
+            this.maxKey = lastKey;
+        } else {
+            this.firstKey = new BlockCursor(readBlock(0)).key();
+            final BlockCursor last = new BlockCursor(readBlock(blocks - 1));
+            last.last();
+            this.maxKey = last.key();
+        }
+        final ByteBuffer first = this.firstKey;
+        if (ranges.isEmpty()) {
+            this.minKey = first;
+            this.rangesEnd = null;
+        } else {
+            this.minKey = first == null || ranges.from(0).compareTo(first) < 0 ? ranges.from(0) : first;
+            this.rangesEnd = ranges.to(ranges.size() - 1);
+        }
+    }
+
+    /**
+     * Maps the table stored in the given file.
+     *
+     * @throws IOException if the file is not a valid table
+     */
+    @NotNull
+    static SSTable open(@NotNull final Path file) throws IOException {
+        return open(file, null);
+    }
+
+    /**
+     * Maps the table stored in the given file.
+     *
+     * @param cache cache to read the blocks through or {@code null} to read them right from the mapping
+     * @throws IOException if the file is not a valid table
+     */
+    @NotNull
+    static SSTable open(
+            @NotNull final Path file,
+            @Nullable final BlockCache cache) throws IOException {
+        return open(file, cache, null, null, ValueRefs.EMPTY);
+    }
+
+    /**
+     * Maps the table stored in the given file.
+     *
+     * @param cache    cache to read the blocks through or {@code null} to read them right from the mapping
+     * @param firstKey the first key of the cells if it is known, so the first block is not read
+     * @param lastKey  the last key of the cells if it is known, so the last block is not read
+     * @param values   the {@link ValueLog} segments referenced by the table with their mappings
+     * @throws IOException if the file is not a valid table
+     */
+    @NotNull
+    static SSTable open(
+            @NotNull final Path file,
+            @Nullable final BlockCache cache,
+            @Nullable final ByteBuffer firstKey,
+            @Nullable final ByteBuffer lastKey,
+            @NotNull final ValueRefs values) throws IOException {
+        final MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < FOOTER || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid table size: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final int footerOffset = mapped.limit() - FOOTER;
+        final ByteBuffer footer = mapped.duplicate().position(footerOffset);
+        final long generation = footer.getLong();
+        final int level = footer.getInt();
+        final int indexOffset = footer.getInt();
+        final int blocks = footer.getInt();
+        final long cells = footer.getLong();
+        final long tombstones = footer.getLong();
+        final int rangesOffset = footer.getInt();
+        final int rangeCount = footer.getInt();
+        final int filterOffset = footer.getInt();
+        final int filterHashes = footer.getInt();
+        final int magic = footer.getInt();
+        final long separatorsOffset = indexOffset + (long) blocks * INDEX_ENTRY;
+        if (magic != MAGIC
+                || level < 0
+                || indexOffset < 0
+                || blocks < 0
+                || tombstones < 0
+                || tombstones > cells
+                || separatorsOffset > rangesOffset
+                || rangesOffset > filterOffset
+                || rangeCount < 0
+                || filterOffset > footerOffset
+                || filterHashes < 0) {
+            throw new IOException("Corrupted table: " + file);
+        }
+
+        BloomFilter filter = null;
+        if (filterHashes > 0 && filterOffset < footerOffset) {
+            filter = new BloomFilter(Bytes.slice(mapped, filterOffset, footerOffset - filterOffset), filterHashes);
+        }
+        return new SSTable(
+                file,
+                mapped.limit(),
+                generation,
+                level,
+                Bytes.slice(mapped, 0, indexOffset),
+                Bytes.slice(mapped, indexOffset, blocks * INDEX_ENTRY),
+                Bytes.slice(mapped, (int) separatorsOffset, rangesOffset - (int) separatorsOffset),
+                filter,
+                blocks,
+                cells,
+                tombstones,
+                readRanges(Bytes.slice(mapped, rangesOffset, filterOffset - rangesOffset), rangeCount),
+                values,
+                cache,
+                firstKey,
+                lastKey);
+    }
+
+    @NotNull
+    private static RangeTombstones readRanges(
+            @NotNull final ByteBuffer buffer,
+            final int count) {
+        if (count == 0) {
+            return RangeTombstones.EMPTY;
+        }
+        final ByteBuffer[] froms = new ByteBuffer[count];
+        final ByteBuffer[] tos = new ByteBuffer[count];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            froms[i] = Bytes.slice(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+            offset += Integer.BYTES + froms[i].remaining();
+            tos[i] = Bytes.slice(buffer, offset + Integer.BYTES, buffer.getInt(offset));
+            offset += Integer.BYTES + tos[i].remaining();
+        }
+        return new RangeTombstones(froms, tos);
+    }
+
+    /**
+     * Writes cells in ascending key order to the given file atomically.
+     *
+     * @param temp         file to write to before moving to the final location
+     * @param config       table settings
+     * @param generation   age of the data
+     * @param level        level of the table in the tree
+     * @param expectedKeys estimated number of cells to size the filter
+     * @param ranges       range tombstones of the table, evaluated once the cells are written
+     */
+    static void write(
+            @NotNull final Path file,
+            @NotNull final Path temp,
+            @NotNull final Config config,
+            final long generation,
+            final int level,
+            final long expectedKeys,
+            @NotNull final Iterator<Cell> cells,
+            @NotNull final Supplier<RangeTombstones> ranges) throws IOException {
+        try (SSTableWriter writer = new SSTableWriter(
+                temp,
+                config.getBlockSize(),
+                config.getBlockRestartInterval(),
+                BlockCodec.create(config.getCompression()),
+                config.getBloomBitsPerKey(),
+                expectedKeys)) {
+            while (cells.hasNext()) {
+                writer.add(cells.next());
+            }
+            writer.commit(file, generation, level, ranges.get());
+        }
+    }
+
+    @NotNull
+    Path getFile() {
+        return file;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    @NotNull
+    RangeTombstones getRangeTombstones() {
+        return ranges;
+    }
+
+    /**
+     * Returns the {@link ValueLog} segments referenced by the table.
+     */
+    @NotNull
+    ValueRefs getValueRefs() {
+        return values;
+    }
+
+    /**
+     * Counts the bytes the table references in every {@link ValueLog} segment reading all the cells,
+     * for the tables not described by the {@link Manifest}.
+     */
+    @NotNull
+    ValueRefs scanValueRefs() {
+        final Map<Long, Long> references = new HashMap<>();
+        final Iterator<Cell> cells = rawIterator(ByteBuffer.allocate(0));
+        while (cells.hasNext()) {
+            final Cell cell = cells.next();
+            if (cell.isPointer()) {
+                final ByteBuffer pointer = cell.getValue();
+                references.merge(ValueLog.segmentOf(pointer), (long) ValueLog.lengthOf(pointer), Long::sum);
+            }
+        }
+        return ValueRefs.of(references);
+    }
+
+    /**
+     * Checks whether the key is deleted by a range tombstone of the table without allocations.
+     */
+    boolean isRangeDeleted(@NotNull final ByteBuffer key) {
+        return ranges.covers(key);
+    }
+
+    /**
+     * Returns the first key of the cells or {@code null} if the table has no cells.
+     */
+    @Nullable
+    ByteBuffer getFirstKey() {
+        return firstKey == null ? null : firstKey.duplicate();
+    }
+
+    /**
+     * Returns the last key of the cells or {@code null} if the table has no cells.
+     */
+    @Nullable
+    ByteBuffer getLastKey() {
+        return maxKey == null ? null : maxKey.duplicate();
+    }
+
+    /**
+     * Returns the first key of the table or {@code null} if the table is empty.
+     */
+    @Nullable
+    ByteBuffer getMinKey() {
+        return minKey == null ? null : minKey.duplicate();
+    }
+
+    /**
+     * Returns the upper bound of the key range of the table or {@code null} if the table is empty.
+     * The bound is inclusive unless it is the end of a range tombstone.
+     */
+    @Nullable
+    ByteBuffer getMaxKey() {
+        if (rangesEnd != null && (maxKey == null || rangesEnd.compareTo(maxKey) > 0)) {
+            return rangesEnd.duplicate();
+        }
+        return maxKey == null ? null : maxKey.duplicate();
+    }
+
+    /**
+     * Compares the key with the key range of the table without allocations.
+     *
+     * @return negative if the key is less than the first key, positive if the key is greater
+     *     than the last key or the table is empty and zero if the key is within the range
+     */
+    int compareToRange(@NotNull final ByteBuffer key) {
+        if (minKey == null) {
+            return 1;
+        }
+        if (key.compareTo(minKey) < 0) {
+            return -1;
+        }
+        if (maxKey != null && key.compareTo(maxKey) <= 0 || rangesEnd != null && key.compareTo(rangesEnd) < 0) {
+            return 0;
+        }
+        return 1;
+    }
+
+    /**
+     * Checks whether the key range of the table intersects with the given one.
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        if (minKey == null || minKey.compareTo(to) > 0) {
+            return false;
+        }
+        return maxKey != null && maxKey.compareTo(from) >= 0 || rangesEnd != null && rangesEnd.compareTo(from) > 0;
+    }
+
+    /**
+     * Size of the table file.
+     */
+    long sizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of cells including tombstones.
+     */
+    long size() {
+        return cells;
+    }
+
+    long tombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Number of cells which are not tombstones.
+     */
+    long liveCells() {
+        return cells - tombstones;
+    }
+
+    /**
+     * Returns {@code false} if the table definitely doesn't contain the key.
+     */
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        return filter == null || filter.mightContain(key);
+    }
+
+    /**
+     * Looks up the value of the given key decoding at most a single block.
+     * The key is compared in place by the cursor reused by the thread and the uncompressed blocks
+     * are read right from the mapping, so nothing is allocated but the returned view of the value
+     * unless the block is decoded to the heap.
+     *
+     * @return the read-only value or {@code null} if there is no such key
+     * @throws NoSuchElementException if the key is removed
+     */
+    @Nullable
+    ByteBuffer find(@NotNull final ByteBuffer key) throws NoSuchElementException {
+        final int block = block(key);
+        if (block == blocks) {
+            return null;
+        }
+        BlockCursor cursor = LOOKUP.get();
+        if (cursor == null) {
+            cursor = new BlockCursor(blockData(block));
+            LOOKUP.set(cursor);
+        } else {
+            enter(cursor, block);
+        }
+        cursor.seek(key);
+        if (!cursor.isValid() || cursor.compareKey(key) != 0) {
+            return null;
+        }
+        if (cursor.isTombstone()) {
+            throw new NoSuchElementException("Removed");
+        }
+        return cursor.isPointer() ? values.resolve(cursor.value()) : cursor.value();
+    }
+
+    /**
+     * Looks up the cell with the given key decoding at most a single block.
+     * Unlike {@link #find(ByteBuffer)} it allocates the cell and the copy of the key.
+     *
+     * @return the cell or {@code null} if there is no such key
+     */
+    @Nullable
+    Cell get(@NotNull final ByteBuffer key) {
+        final int block = block(key);
+        if (block == blocks) {
+            return null;
+        }
+        final BlockCursor cursor = new BlockCursor(blockData(block));
+        cursor.seek(key);
+        if (!cursor.isValid() || cursor.compareKey(key) != 0) {
+            return null;
+        }
+        return cell(cursor);
+    }
+
+    /**
+     * Iterates over cells starting at the given key (inclusive).
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return iterator(from, false);
+    }
+
+    /**
+     * Iterates over cells starting at the given key (inclusive).
+     *
+     * @param liveOnly whether to skip tombstones, e.g. if there is no older data to shadow
+     */
+    @NotNull
+    Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            final boolean liveOnly) {
+        return new CellIterator(block(from), from, liveOnly, false);
+    }
+
+    /**
+     * Iterates over cells starting at the given key (inclusive) without resolving the {@link ValueLog} pointers,
+     * so the compactions copy the pointers rather than the values.
+     */
+    @NotNull
+    Iterator<Cell> rawIterator(@NotNull final ByteBuffer from) {
+        return new CellIterator(block(from), from, false, true);
+    }
+
+    /**
+     * Creates the not positioned cursor over cells.
+     *
+     * @param liveOnly whether to skip tombstones, e.g. if there is no older data to shadow
+     */
+    @NotNull
+    CellCursor cursor(final boolean liveOnly) {
+        return new TableCursor(liveOnly);
+    }
+
+    /**
+     * Iterates over cells in descending order starting at the given key (inclusive).
+     *
+     * @param from     the first key or {@code null} to start at the last cell
+     * @param liveOnly whether to skip tombstones, e.g. if there is no older data to shadow
+     */
+    @NotNull
+    Iterator<Cell> descendingIterator(
+            @Nullable final ByteBuffer from,
+            final boolean liveOnly) {
+        // The floor is either in the block of the ceiling or in the previous one
+        final int block = from == null ? blocks - 1 : Math.min(block(from), blocks - 1);
+        return new DescendingCellIterator(block, from, liveOnly);
+    }
+
+    /**
+     * Returns the current cell of the cursor with the value read from the {@link ValueLog} if needed.
+     */
+    @NotNull
+    private Cell cell(@NotNull final BlockCursor cursor) {
+        if (cursor.isPointer()) {
+            return new Cell(cursor.key(), values.resolve(cursor.valueView()));
+        }
+        return cursor.cell();
+    }
+
+    /**
+     * Returns the decoded block: the cached copy, the view of the mapping or the block decoded to the heap.
+     *
+     * @throws UncheckedIOException if the block is corrupted
+     */
+    @NotNull
+    private ByteBuffer blockData(final int block) {
+        try {
+            if (cache == null || slots == null) {
+                return readBlock(block);
+            }
+            final ByteBuffer cached = cache.get(slots, block);
+            if (cached != null) {
+                return cached;
+            }
+            return cache.put(slots, block, readBlock(block));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read block " + block + " of " + file, e);
+        }
+    }
+
+    /**
+     * Positions the cursor at the first cell of the block reading an uncompressed block right from the mapping
+     * unless the blocks are read through the cache.
+     */
+    private void enter(
+            @NotNull final BlockCursor cursor,
+            final int block) {
+        final int offset = blockOffset(block);
+        if (cache == null && data.get(offset) == BlockCodec.NONE) {
+            final int payload = offset + BLOCK_HEADER;
+            final int end = blockEnd(block);
+            if (payload <= end && data.getInt(offset + 1) == end - payload) {
+                cursor.reset(data, payload, end);
+                return;
+            }
+        }
+        // Decodes the block or reports the corruption
+        cursor.reset(blockData(block));
+    }
+
+    @NotNull
+    private ByteBuffer readBlock(final int block) throws IOException {
+        final int offset = blockOffset(block);
+        final int payload = offset + BLOCK_HEADER;
+        final int end = blockEnd(block);
+        final int length = data.getInt(offset + 1);
+        if (payload > end || length < 0) {
+            throw new IOException("Corrupted block header");
+        }
+        return BlockCodec.decode(data.get(offset), Bytes.slice(data, payload, end - payload), length);
+    }
+
+    /**
+     * Returns index of the first block with the separator not less than the key.
+     * Such a block (or the next one) contains the first cell not less than the key.
+     */
+    private int block(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = blocks - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            final int entry = mid * INDEX_ENTRY;
+            final int cmp = Bytes.compare(
+                    key,
+                    separators,
+                    index.getInt(entry + SEPARATOR_OFFSET),
+                    index.getInt(entry + SEPARATOR_LENGTH));
+            if (cmp > 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+
+    private int blockOffset(final int block) {
+        return index.getInt(block * INDEX_ENTRY);
+    }
+
+    private int blockEnd(final int block) {
+        return block + 1 == blocks ? data.limit() : blockOffset(block + 1);
+    }
+
+    private int blockLiveCells(final int block) {
+        return index.getInt(block * INDEX_ENTRY + LIVE_CELLS);
+    }
+
+    private final class CellIterator implements Iterator<Cell> {
+        private final boolean liveOnly;
+        private final boolean raw;
+        private int block;
+        /**
+         * Cursor over the current block or {@code null} if the block is skipped.
+         */
+        @Nullable
+        private BlockCursor cursor;
+
+        CellIterator(
+                final int block,
+                @NotNull final ByteBuffer from,
+                final boolean liveOnly,
+                final boolean raw) {
+            this.liveOnly = liveOnly;
+            this.raw = raw;
+            this.block = block;
+            if (block < blocks && (!liveOnly || blockLiveCells(block) > 0)) {
+                this.cursor = new BlockCursor(blockData(block));
+                this.cursor.seek(from);
+            }
+            settle();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return block < blocks;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext() || cursor == null) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = raw ? cursor.cell() : cell(cursor);
+            cursor.advance();
+            settle();
+            return result;
+        }
+
+        /**
+         * Moves to the next cell to return, if any, skipping the tombstones if needed.
+         * Blocks without live cells are skipped without reading.
+         */
+        private void settle() {
+            while (block < blocks) {
+                if (cursor == null || !cursor.isValid()) {
+                    block++;
+                    cursor = block < blocks && (!liveOnly || blockLiveCells(block) > 0)
+                            ? new BlockCursor(blockData(block))
+                            : null;
+                } else if (liveOnly && cursor.isTombstone()) {
+                    cursor.advance();
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cursor reusing a single {@link BlockCursor} for all the blocks.
+     */
+    private final class TableCursor implements CellCursor {
+        private final boolean liveOnly;
+        private int block = blocks;
+        @Nullable
+        private BlockCursor cursor;
+        /**
+         * Whether {@link #cursor} is positioned in the current block.
+         */
+        private boolean loaded;
+
+        TableCursor(final boolean liveOnly) {
+            this.liveOnly = liveOnly;
+        }
+
+        @Override
+        public void seek(@NotNull final ByteBuffer key) {
+            block = block(key);
+            load();
+            if (loaded) {
+                cursor.seek(key);
+            }
+            settle();
+        }
+
+        @Override
+        public boolean isValid() {
+            return block < blocks;
+        }
+
+        @Override
+        public void next() {
+            cursor.advance();
+            settle();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer key() {
+            return cursor.keyView();
+        }
+
+        @Override
+        public boolean isTombstone() {
+            return cursor.isTombstone();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer value() {
+            return cursor.isPointer() ? values.resolve(cursor.valueView()) : cursor.valueView();
+        }
+
+        /**
+         * Positions the block cursor at the first cell of the current block unless the block is skipped.
+         */
+        private void load() {
+            loaded = block < blocks && (!liveOnly || blockLiveCells(block) > 0);
+            if (!loaded) {
+                return;
+            }
+            if (cursor == null) {
+                cursor = new BlockCursor(blockData(block));
+            } else {
+                enter(cursor, block);
+            }
+        }
+
+        private void settle() {
+            while (block < blocks) {
+                if (!loaded || !cursor.isValid()) {
+                    block++;
+                    load();
+                } else if (liveOnly && cursor.isTombstone()) {
+                    cursor.advance();
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the blocks backwards through the index, see {@link BlockCursor#previous()}.
+     */
+    private final class DescendingCellIterator implements Iterator<Cell> {
+        private final boolean liveOnly;
+        private int block;
+        @Nullable
+        private BlockCursor cursor;
+
+        DescendingCellIterator(
+                final int block,
+                @Nullable final ByteBuffer from,
+                final boolean liveOnly) {
+            this.liveOnly = liveOnly;
+            this.block = block;
+            if (block >= 0 && (!liveOnly || blockLiveCells(block) > 0)) {
+                this.cursor = new BlockCursor(blockData(block));
+                if (from == null) {
+                    this.cursor.last();
+                } else {
+                    this.cursor.seekFloor(from);
+                }
+            }
+            settle();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return block >= 0;
+        }
+
+        @Override
+        public Cell next() {
+            if (!hasNext() || cursor == null) {
+                throw new NoSuchElementException("No more cells");
+            }
+            final Cell result = cell(cursor);
+            cursor.previous();
+            settle();
+            return result;
+        }
+
+        private void settle() {
+            while (block >= 0) {
+                if (cursor == null || !cursor.isValid()) {
+                    block--;
+                    cursor = block >= 0 && (!liveOnly || blockLiveCells(block) > 0)
+                            ? new BlockCursor(blockData(block))
+                            : null;
+                    if (cursor != null) {
+                        cursor.last();
+                    }
+                } else if (liveOnly && cursor.isTombstone()) {
+                    cursor.previous();
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+}
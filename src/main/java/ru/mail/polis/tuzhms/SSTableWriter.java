@@ -0,0 +1,384 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams cells in ascending key order into the {@link SSTable} file format.
+ *
+ * <p>Cells are grouped into blocks of roughly the configured size. For every block
+ * the index keeps its offset and a short separator key which is not less than
+ * the last key of the block and is less than the first key of the next block,
+ * and the number of live (not tombstone) cells in the block.
+ *
+ * <p>Keys within a block are stored without the prefix shared with the previous key, every
+ * {@link Config#getBlockRestartInterval()} keys are stored as a whole to bound the scan of a seek
+ * (see {@link BlockCursor}).
+ *
+ * <p>A block is accumulated on the heap and written with the header {@code [codec][length]}
+ * followed by the block compressed by the {@link BlockCodec}, or by the block as is
+ * unless the compression saves at least one eighth of it.
+ *
+ * @author tuzhms
+ */
+final class SSTableWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_SAVING_SHIFT = 3;
+
+    private final Path temp;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final int blockSize;
+    private final int restartInterval;
+    private final BlockCodec codec;
+    @Nullable
+    private final BloomFilter filter;
+    private ByteBuffer block;
+    private byte[] compressed = new byte[0];
+    private int[] restarts = new int[16];
+    private int restartCount;
+    private int blockCells;
+
+    private final List<byte[]> separators = new ArrayList<>();
+    private int[] blockOffsets = new int[64];
+    private int[] blockLiveCells = new int[64];
+
+    private long offset;
+    private long cells;
+    private long tombstones;
+    @Nullable
+    private ByteBuffer lastKey;
+
+    /**
+     * Creates the writer to the temporary file.
+     *
+     * @param temp         file to write to before moving to the final location
+     * @param blockSize    target size of data blocks in bytes
+     * @param restarts     number of keys between the keys stored as a whole
+     * @param codec        compression of data blocks
+     * @param bitsPerKey   Bloom filter size per key or {@code 0} not to build the filter
+     * @param expectedKeys estimated number of cells to size the filter
+     */
+    SSTableWriter(
+            @NotNull final Path temp,
+            final int blockSize,
+            final int restarts,
+            @NotNull final BlockCodec codec,
+            final int bitsPerKey,
+            final long expectedKeys) throws IOException {
+        this.temp = temp;
+        this.blockSize = blockSize;
+        this.restartInterval = restarts;
+        this.codec = codec;
+        this.block = ByteBuffer.allocate(blockSize + blockSize / 2);
+        this.filter = bitsPerKey > 0 ? BloomFilter.create(expectedKeys, bitsPerKey) : null;
+        this.channel = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Appends the cell which must be greater than all the previous ones.
+     */
+    void add(@NotNull final Cell cell) throws IOException {
+        final ByteBuffer key = cell.getKey();
+        if (lastKey == null) {
+            startBlock();
+        } else if (block.position() >= blockSize) {
+            endBlock(separator(lastKey, key));
+            startBlock();
+        }
+
+        int shared = 0;
+        if (blockCells % restartInterval == 0) {
+            if (restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount++] = block.position();
+        } else {
+            shared = sharedPrefix(lastKey, key);
+        }
+        blockCells++;
+
+        final ByteBuffer value = cell.isTombstone() ? null : cell.getValue();
+        final int unshared = key.remaining() - shared;
+        final int valueLength = value == null ? 0 : value.remaining();
+        // Variable-length integers take at most 5 bytes
+        ensureBlockRoom(3 * 5 + unshared + valueLength);
+        Bytes.putVarInt(block, shared);
+        Bytes.putVarInt(block, unshared);
+        if (value == null) {
+            Bytes.putVarInt(block, 0);
+            block.put(key.duplicate().position(key.position() + shared));
+            tombstones++;
+        } else {
+            blockLiveCells[separators.size()]++;
+            Bytes.putVarInt(block, cell.isPointer() ? SSTable.POINTER : valueLength + 1);
+            block.put(key.duplicate().position(key.position() + shared));
+            block.put(value.duplicate());
+        }
+        if (filter != null) {
+            filter.add(key);
+        }
+        lastKey = key;
+        cells++;
+    }
+
+    /**
+     * Writes the index, the range tombstones and the footer and atomically moves the table to its location.
+     */
+    void commit(
+            @NotNull final Path file,
+            final long generation,
+            final int level,
+            @NotNull final RangeTombstones ranges) throws IOException {
+        if (lastKey != null) {
+            endBlock(successor(lastKey));
+        }
+
+        final int indexOffset = Math.toIntExact(offset);
+        final int blocks = separators.size();
+        int separatorOffset = 0;
+        for (int i = 0; i < blocks; i++) {
+            putInt(blockOffsets[i]);
+            putInt(blockLiveCells[i]);
+            putInt(separatorOffset);
+            putInt(separators.get(i).length);
+            separatorOffset += separators.get(i).length;
+        }
+        for (final byte[] separator : separators) {
+            put(ByteBuffer.wrap(separator));
+        }
+
+        final int rangesOffset = Math.toIntExact(offset);
+        for (int i = 0; i < ranges.size(); i++) {
+            final ByteBuffer from = ranges.from(i);
+            final ByteBuffer to = ranges.to(i);
+            putInt(from.remaining());
+            put(from);
+            putInt(to.remaining());
+            put(to);
+        }
+
+        final int filterOffset = Math.toIntExact(offset);
+        if (filter != null) {
+            put(filter.getBits());
+        }
+
+        putLong(generation);
+        putInt(level);
+        putInt(indexOffset);
+        putInt(blocks);
+        putLong(cells);
+        putLong(tombstones);
+        putInt(rangesOffset);
+        putInt(ranges.size());
+        putInt(filterOffset);
+        putInt(filter == null ? 0 : filter.getHashes());
+        putInt(SSTable.MAGIC);
+        flush();
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Table is too big to be mapped: " + offset);
+        }
+
+        channel.force(false);
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Discards the unfinished table if it was not committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void startBlock() {
+        final int index = separators.size();
+        if (index == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, index * 2);
+            blockLiveCells = Arrays.copyOf(blockLiveCells, index * 2);
+        }
+        block.clear();
+        restartCount = 0;
+        blockCells = 0;
+    }
+
+    /**
+     * Grows the block buffer to fit a large cell.
+     */
+    private void ensureBlockRoom(final int bytes) {
+        if (block.remaining() < bytes) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(block.capacity() * 2, block.position() + bytes));
+            block = grown.put(block.flip());
+        }
+    }
+
+    /**
+     * Writes the accumulated block compressed if it is worth it.
+     */
+    private void endBlock(@NotNull final byte[] separator) throws IOException {
+        blockOffsets[separators.size()] = Math.toIntExact(offset);
+        separators.add(separator);
+
+        ensureBlockRoom((restartCount + 1) * Integer.BYTES);
+        for (int i = 0; i < restartCount; i++) {
+            block.putInt(restarts[i]);
+        }
+        block.putInt(restartCount);
+
+        final int length = block.position();
+        final int limit = length - (length >>> MIN_SAVING_SHIFT);
+        if (compressed.length < limit) {
+            compressed = new byte[Math.max(limit, compressed.length * 2)];
+        }
+        final int compressedLength = codec.compress(block.array(), length, compressed);
+        if (compressedLength < 0 || compressedLength > limit) {
+            putByte(BlockCodec.NONE);
+            putInt(length);
+            put(block.flip());
+        } else {
+            putByte(codec.getId());
+            putInt(length);
+            put(ByteBuffer.wrap(compressed, 0, compressedLength));
+        }
+    }
+
+    private void putByte(final byte value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(value);
+        offset++;
+    }
+
+    private void putInt(final int value) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        buffer.putInt(value);
+        offset += Integer.BYTES;
+    }
+
+    private void putLong(final long value) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            flush();
+        }
+        buffer.putLong(value);
+        offset += Long.BYTES;
+    }
+
+    private void put(@NotNull final ByteBuffer bytes) throws IOException {
+        offset += bytes.remaining();
+        if (buffer.remaining() < bytes.remaining()) {
+            flush();
+        }
+        if (buffer.remaining() < bytes.remaining()) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the length of the common prefix of the keys.
+     */
+    private static int sharedPrefix(
+            @NotNull final ByteBuffer left,
+            @NotNull final ByteBuffer right) {
+        final int length = Math.min(left.remaining(), right.remaining());
+        int common = 0;
+        while (common < length
+                && left.get(left.position() + common) == right.get(right.position() + common)) {
+            common++;
+        }
+        return common;
+    }
+
+    /**
+     * Returns the shortest key {@code s} such that {@code left <= s < right}.
+     */
+    @NotNull
+    static byte[] separator(
+            @NotNull final ByteBuffer left,
+            @NotNull final ByteBuffer right) {
+        final int common = sharedPrefix(left, right);
+        if (common == Math.min(left.remaining(), right.remaining())) {
+            return copy(left);
+        }
+
+        // Any prefix of the left key with the last byte incremented fits
+        // unless the increment makes the differing byte equal to the right one
+        final byte diff = left.get(left.position() + common);
+        if (diff + 1 < right.get(right.position() + common)) {
+            return increment(left, common);
+        }
+        for (int i = common + 1; i < left.remaining(); i++) {
+            if (left.get(left.position() + i) != Byte.MAX_VALUE) {
+                return increment(left, i);
+            }
+        }
+        return copy(left);
+    }
+
+    /**
+     * Returns a short key which is not less than the given one.
+     */
+    @NotNull
+    static byte[] successor(@NotNull final ByteBuffer key) {
+        for (int i = 0; i < key.remaining(); i++) {
+            if (key.get(key.position() + i) != Byte.MAX_VALUE) {
+                return increment(key, i);
+            }
+        }
+        return copy(key);
+    }
+
+    /**
+     * Returns the first {@code index + 1} bytes of the key with the last one incremented.
+     */
+    @NotNull
+    private static byte[] increment(
+            @NotNull final ByteBuffer key,
+            final int index) {
+        final byte[] result = new byte[index + 1];
+        key.duplicate().get(result);
+        result[index]++;
+        return result;
+    }
+
+    @NotNull
+    private static byte[] copy(@NotNull final ByteBuffer key) {
+        final byte[] result = new byte[key.remaining()];
+        key.duplicate().get(result);
+        return result;
+    }
+}
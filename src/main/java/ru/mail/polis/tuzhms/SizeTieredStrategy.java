@@ -0,0 +1,124 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges runs of adjacent (by generation) tables of similar size into a single table.
+ *
+ * <p>Only the first level is compacted, the result takes the place of the run,
+ * so the age order is preserved. Tombstones are dropped only when the run includes the oldest table
+ * or when a table with many tombstones shadowing nothing is compacted alone.
+ *
+ * @author tuzhms
+ */
+final class SizeTieredStrategy implements CompactionStrategy {
+    private static final double BUCKET_LOW = 0.5;
+    private static final double BUCKET_HIGH = 1.5;
+    private static final long SMALL_TABLE = 1024 * 1024;
+
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final double tombstoneRatio;
+
+    SizeTieredStrategy(@NotNull final Config config) {
+        this.minThreshold = config.getCompactionMinThreshold();
+        this.maxThreshold = config.getCompactionMaxThreshold();
+        this.tombstoneRatio = config.getTombstoneCompactionRatio();
+    }
+
+    /**
+     * Finds the cheapest run of adjacent tables of similar size which are not being compacted.
+     * If there is no such run, looks for a table full of tombstones to purge.
+     */
+    @Nullable
+    @Override
+    public Compaction pick(
+            @NotNull final Tables tables,
+            @NotNull final Set<SSTable> busy) {
+        final List<SSTable> candidates = tables.level(0);
+        List<SSTable> best = null;
+        double bestAverage = Double.MAX_VALUE;
+        int start = 0;
+        while (start < candidates.size()) {
+            final int end = runEnd(candidates, start, busy);
+            if (end - start >= minThreshold) {
+                final double average = (double) sizeInBytes(candidates, start, end) / (end - start);
+                if (average < bestAverage) {
+                    bestAverage = average;
+                    best = candidates.subList(start, end);
+                }
+                start = end;
+            } else {
+                start++;
+            }
+        }
+
+        if (best == null) {
+            return CompactionStrategy.pickTombstones(tables, busy, tombstoneRatio, Long.MAX_VALUE);
+        }
+        final boolean oldest = best.get(best.size() - 1) == tables.get(tables.size() - 1);
+        return new Compaction(new ArrayList<>(best), 0, Long.MAX_VALUE, oldest);
+    }
+
+    /**
+     * Sums up the sizes of the runs to be merged regardless of the running compactions.
+     */
+    @Override
+    public long pendingBytes(@NotNull final Tables tables) {
+        final List<SSTable> candidates = tables.level(0);
+        long result = 0;
+        int start = 0;
+        while (start < candidates.size()) {
+            final int end = runEnd(candidates, start, Set.of());
+            if (end - start >= minThreshold) {
+                result += sizeInBytes(candidates, start, end);
+                start = end;
+            } else {
+                start++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the exclusive end of the run of the similar tables which are not being compacted.
+     */
+    private int runEnd(
+            @NotNull final List<SSTable> candidates,
+            final int start,
+            @NotNull final Set<SSTable> busy) {
+        int end = start;
+        long total = 0;
+        while (end < candidates.size()
+                && end - start < maxThreshold
+                && !busy.contains(candidates.get(end))
+                && (end == start || similar(candidates.get(end).sizeInBytes(), (double) total / (end - start)))) {
+            total += candidates.get(end).sizeInBytes();
+            end++;
+        }
+        return end;
+    }
+
+    private static long sizeInBytes(
+            @NotNull final List<SSTable> tables,
+            final int start,
+            final int end) {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            result += tables.get(i).sizeInBytes();
+        }
+        return result;
+    }
+
+    private static boolean similar(
+            final long size,
+            final double average) {
+        return size < SMALL_TABLE && average < SMALL_TABLE
+                || size >= average * BUCKET_LOW && size <= average * BUCKET_HIGH;
+    }
+}
@@ -0,0 +1,49 @@
+package ru.mail.polis.tuzhms;
+
+/**
+ * Snapshot of the storage opening timings.
+ *
+ * @author tuzhms
+ */
+public final class StartupStats {
+    private final int tables;
+    private final long openNanos;
+    private final long firstGetNanos;
+
+    StartupStats(
+            final int tables,
+            final long openNanos,
+            final long firstGetNanos) {
+        this.tables = tables;
+        this.openNanos = openNanos;
+        this.firstGetNanos = firstGetNanos;
+    }
+
+    /**
+     * Number of tables opened on startup.
+     */
+    public int getTables() {
+        return tables;
+    }
+
+    /**
+     * Time spent in the constructor including the recovery of the logs.
+     */
+    public long getOpenNanos() {
+        return openNanos;
+    }
+
+    /**
+     * Time from the start of opening until the first lookup completed or {@code -1} if there were no lookups yet.
+     */
+    public long getFirstGetNanos() {
+        return firstGetNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "StartupStats{tables=" + tables
+                + ", openNanos=" + openNanos
+                + ", firstGetNanos=" + firstGetNanos + '}';
+    }
+}
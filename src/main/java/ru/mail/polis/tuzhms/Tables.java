@@ -0,0 +1,220 @@
+package ru.mail.polis.tuzhms;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of tables of {@link LSMDao} ordered from the newest data to the oldest one.
+ *
+ * <p>Tables of the first level may overlap and are ordered by generation.
+ * Every deeper level is a sorted run of non-overlapping tables ordered by key,
+ * so a key can be found in at most one table per level.
+ * The data of a level is newer than the data of the deeper levels.
+ *
+ * <p>Tombstones of a table are useless if the older tables with the intersecting key ranges
+ * have no live cells: such a table is called the bottom one.
+ *
+ * @author tuzhms
+ */
+final class Tables {
+    /**
+     * Orders tables from the newest data to the oldest one.
+     */
+    static final Comparator<SSTable> ORDER = (left, right) -> {
+        if (left.getLevel() != right.getLevel()) {
+            return Integer.compare(left.getLevel(), right.getLevel());
+        }
+        if (left.getLevel() == 0) {
+            return Long.compare(right.getGeneration(), left.getGeneration());
+        }
+        final ByteBuffer leftKey = left.getMinKey();
+        final ByteBuffer rightKey = right.getMinKey();
+        if (leftKey == null || rightKey == null) {
+            // Empty tables go first
+            return Boolean.compare(rightKey == null, leftKey == null);
+        }
+        return leftKey.compareTo(rightKey);
+    };
+
+    static final Tables EMPTY = new Tables(ImmutableList.of());
+
+    private final ImmutableList<SSTable> all;
+    /**
+     * Exclusive end of every level in the list.
+     */
+    private final int[] ends;
+    private final boolean[] bottom;
+
+    private Tables(@NotNull final ImmutableList<SSTable> all) {
+        this.all = all;
+        final int levels = all.isEmpty() ? 1 : all.get(all.size() - 1).getLevel() + 1;
+        this.ends = new int[levels];
+        int level = 0;
+        for (int i = 0; i < all.size(); i++) {
+            while (level < all.get(i).getLevel()) {
+                ends[level++] = i;
+            }
+        }
+        while (level < levels) {
+            ends[level++] = all.size();
+        }
+
+        this.bottom = new boolean[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            bottom[i] = shadowsNothing(all.get(i), i + 1);
+        }
+    }
+
+    private boolean shadowsNothing(
+            @NotNull final SSTable table,
+            final int older) {
+        final ByteBuffer from = table.getMinKey();
+        final ByteBuffer to = table.getMaxKey();
+        if (from == null || to == null) {
+            return true;
+        }
+        for (int i = older; i < all.size(); i++) {
+            final SSTable other = all.get(i);
+            if (other.liveCells() > 0 && other.overlaps(from, to)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NotNull
+    static Tables of(@NotNull final Collection<SSTable> tables) {
+        final List<SSTable> sorted = new ArrayList<>(tables);
+        sorted.sort(ORDER);
+        return new Tables(ImmutableList.copyOf(sorted));
+    }
+
+    /**
+     * Returns the new set without the removed tables and with the added ones.
+     */
+    @NotNull
+    Tables replace(
+            @NotNull final Collection<SSTable> removed,
+            @NotNull final Collection<SSTable> added) {
+        final Set<SSTable> skip = Collections.newSetFromMap(new IdentityHashMap<>());
+        skip.addAll(removed);
+        final List<SSTable> result = new ArrayList<>(all.size() - removed.size() + added.size());
+        for (final SSTable table : all) {
+            if (!skip.contains(table)) {
+                result.add(table);
+            }
+        }
+        result.addAll(added);
+        return of(result);
+    }
+
+    /**
+     * Returns all the tables from the newest to the oldest.
+     */
+    @NotNull
+    List<SSTable> all() {
+        return all;
+    }
+
+    int size() {
+        return all.size();
+    }
+
+    @NotNull
+    SSTable get(final int index) {
+        return all.get(index);
+    }
+
+    /**
+     * Checks whether the tombstones of the table at the index shadow nothing and can be skipped or dropped.
+     */
+    boolean isBottom(final int index) {
+        return bottom[index];
+    }
+
+    /**
+     * Number of levels including the empty ones but the trailing.
+     */
+    int levels() {
+        return ends.length;
+    }
+
+    /**
+     * Returns the tables of the level.
+     */
+    @NotNull
+    List<SSTable> level(final int level) {
+        if (level >= ends.length) {
+            return ImmutableList.of();
+        }
+        return all.subList(level == 0 ? 0 : ends[level - 1], ends[level]);
+    }
+
+    /**
+     * Total size of the level in bytes.
+     */
+    long sizeInBytes(final int level) {
+        long result = 0;
+        for (final SSTable table : level(level)) {
+            result += table.sizeInBytes();
+        }
+        return result;
+    }
+
+    /**
+     * Returns index of the first table which may contain the key or {@link #size()} if there is no such table.
+     */
+    int first(@NotNull final ByteBuffer key) {
+        return next(-1, key);
+    }
+
+    /**
+     * Returns index of the table following the given one which may contain the key
+     * or {@link #size()} if there is no such table. Checks at most one table per level but the first one.
+     */
+    int next(
+            final int index,
+            @NotNull final ByteBuffer key) {
+        if (index + 1 < ends[0]) {
+            return index + 1;
+        }
+        final int level = index < ends[0] ? 1 : all.get(index).getLevel() + 1;
+        for (int i = level; i < ends.length; i++) {
+            final int table = search(i, key);
+            if (table >= 0) {
+                return table;
+            }
+        }
+        return all.size();
+    }
+
+    /**
+     * Binary searches the level for the table with the key range containing the key.
+     *
+     * @return index of the table or {@code -1} if there is no such table
+     */
+    private int search(
+            final int level,
+            @NotNull final ByteBuffer key) {
+        int left = ends[level - 1];
+        int right = ends[level] - 1;
+        while (left <= right) {
+            final int mid = (left + right) >>> 1;
+            if (all.get(mid).compareToRange(key) > 0) {
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left < ends[level] && all.get(left).compareToRange(key) == 0 ? left : -1;
+    }
+}
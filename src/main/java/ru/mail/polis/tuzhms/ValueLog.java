@@ -0,0 +1,354 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Segments of the values separated from the keys, so the compactions rewrite the pointers only.
+ *
+ * <p>Values not shorter than {@link Config#getValueSeparationThreshold()} are appended to a new segment
+ * file {@code <id>.vlog} while their table is written by a flush, the table stores the pointer
+ * {@code [segment id][offset][length]} instead. A segment is just the concatenated values,
+ * it is forced to the disk before its table is recorded in the {@link Manifest} and is never changed.
+ * Every table lists the segments it references with the referenced bytes (see {@link ValueRefs}),
+ * so the live bytes of a segment are known without reading the tables.
+ *
+ * <p>Garbage is collected by the compactions: the values of the segments with at least
+ * {@link Config#getValueLogGcRatio()} of dead bytes are moved to the segment of the output table,
+ * and a segment is deleted once no table references it.
+ *
+ * @author tuzhms
+ */
+final class ValueLog {
+    private static final Logger log = LoggerFactory.getLogger(ValueLog.class);
+
+    static final String SUFFIX = ".vlog";
+    /**
+     * Size of a pointer in bytes.
+     */
+    static final int POINTER = Long.BYTES + 2 * Integer.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_SEGMENT = Integer.MAX_VALUE;
+
+    private final Path base;
+    /**
+     * Mappings of the segments referenced by the live tables.
+     */
+    private final ConcurrentMap<Long, ByteBuffer> segments = new ConcurrentHashMap<>();
+
+    ValueLog(@NotNull final Path base) {
+        this.base = base;
+    }
+
+    @NotNull
+    static String name(final long id) {
+        return id + SUFFIX;
+    }
+
+    static long segmentOf(@NotNull final ByteBuffer pointer) {
+        return pointer.getLong(pointer.position());
+    }
+
+    static int offsetOf(@NotNull final ByteBuffer pointer) {
+        return pointer.getInt(pointer.position() + Long.BYTES);
+    }
+
+    static int lengthOf(@NotNull final ByteBuffer pointer) {
+        return pointer.getInt(pointer.position() + Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Maps the segments referenced by a table.
+     */
+    @NotNull
+    ValueRefs attach(@NotNull final ValueRefs refs) throws IOException {
+        if (refs.isEmpty()) {
+            return refs;
+        }
+        final ByteBuffer[] mappings = new ByteBuffer[refs.size()];
+        for (int i = 0; i < mappings.length; i++) {
+            mappings[i] = segment(refs.id(i));
+        }
+        return refs.attach(mappings);
+    }
+
+    /**
+     * Returns the value the pointer refers to, the segment must be referenced by a live table.
+     */
+    @NotNull
+    ByteBuffer read(@NotNull final ByteBuffer pointer) throws IOException {
+        return Bytes.slice(segment(segmentOf(pointer)), offsetOf(pointer), lengthOf(pointer));
+    }
+
+    /**
+     * Returns the segments with at least the given share of the bytes not referenced by the tables.
+     */
+    @NotNull
+    Set<Long> garbage(
+            @NotNull final Tables tables,
+            final double ratio) {
+        if (segments.isEmpty()) {
+            return Set.of();
+        }
+        final Map<Long, Long> live = new HashMap<>();
+        for (final SSTable table : tables.all()) {
+            final ValueRefs refs = table.getValueRefs();
+            for (int i = 0; i < refs.size(); i++) {
+                live.merge(refs.id(i), refs.bytes(i), Long::sum);
+            }
+        }
+        final Set<Long> result = new HashSet<>();
+        for (final Map.Entry<Long, ByteBuffer> segment : segments.entrySet()) {
+            final long size = segment.getValue().capacity();
+            final long dead = size - live.getOrDefault(segment.getKey(), 0L);
+            if (size > 0 && (double) dead / size >= ratio) {
+                result.add(segment.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the segments of the removed tables which are not referenced by the remaining ones.
+     * The open tables keep their mappings, so the snapshots still read the deleted segments.
+     */
+    void release(
+            @NotNull final Collection<SSTable> removed,
+            @NotNull final Tables tables) {
+        final Set<Long> candidates = new HashSet<>();
+        for (final SSTable table : removed) {
+            final ValueRefs refs = table.getValueRefs();
+            for (int i = 0; i < refs.size(); i++) {
+                candidates.add(refs.id(i));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        for (final SSTable table : tables.all()) {
+            final ValueRefs refs = table.getValueRefs();
+            for (int i = 0; i < refs.size(); i++) {
+                candidates.remove(refs.id(i));
+            }
+        }
+        for (final long id : candidates) {
+            segments.remove(id);
+            try {
+                Files.deleteIfExists(base.resolve(name(id)));
+            } catch (IOException e) {
+                log.warn("Can't delete value log segment {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Wraps the cells of the table being written to move the large values to the new segments.
+     *
+     * @param threshold minimum length of a separated value, {@code 0} to keep the values in the table
+     * @param relocate  segments to move the referenced values from
+     * @param ids       source of the ids of the new segments
+     */
+    @NotNull
+    Separator separator(
+            @NotNull final Iterator<Cell> cells,
+            final int threshold,
+            @NotNull final Set<Long> relocate,
+            @NotNull final LongSupplier ids) {
+        return new Separator(cells, threshold, relocate, ids);
+    }
+
+    @NotNull
+    private ByteBuffer segment(final long id) throws IOException {
+        final ByteBuffer mapped = segments.get(id);
+        if (mapped != null) {
+            return mapped;
+        }
+        final Path file = base.resolve(name(id));
+        final ByteBuffer created;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_SEGMENT) {
+                throw new IOException("Invalid value log segment size: " + file);
+            }
+            created = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+        }
+        final ByteBuffer existing = segments.putIfAbsent(id, created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * Replaces the large values with the pointers to the new segments and counts the references of the table.
+     * Failures to write a segment are thrown as {@link UncheckedIOException}.
+     */
+    final class Separator implements Iterator<Cell>, Closeable {
+        private final Iterator<Cell> cells;
+        private final int threshold;
+        private final Set<Long> relocate;
+        private final LongSupplier ids;
+        private final Map<Long, Long> references = new HashMap<>();
+        private final List<Path> written = new ArrayList<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        @Nullable
+        private FileChannel channel;
+        private long id;
+        private long offset;
+        private long bytes;
+        private boolean finished;
+
+        private Separator(
+                @NotNull final Iterator<Cell> cells,
+                final int threshold,
+                @NotNull final Set<Long> relocate,
+                @NotNull final LongSupplier ids) {
+            this.cells = cells;
+            this.threshold = threshold;
+            this.relocate = relocate;
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cells.hasNext();
+        }
+
+        @Override
+        public Cell next() {
+            final Cell cell = cells.next();
+            if (cell.isTombstone()) {
+                return cell;
+            }
+            try {
+                if (cell.isPointer()) {
+                    final ByteBuffer pointer = cell.getValue();
+                    if (relocate.contains(segmentOf(pointer))) {
+                        return separate(cell.getKey(), read(pointer));
+                    }
+                    references.merge(segmentOf(pointer), (long) lengthOf(pointer), Long::sum);
+                    return cell;
+                }
+                final ByteBuffer value = cell.getValue();
+                if (threshold > 0 && value.remaining() >= threshold) {
+                    return separate(cell.getKey(), value);
+                }
+                return cell;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't write value log segment", e);
+            }
+        }
+
+        /**
+         * Forces the written segments to the disk.
+         *
+         * @return the references of the table
+         */
+        @NotNull
+        ValueRefs finish() throws IOException {
+            closeSegment();
+            finished = true;
+            return ValueRefs.of(references);
+        }
+
+        /**
+         * Bytes written to the segments.
+         */
+        long bytesWritten() {
+            return bytes;
+        }
+
+        /**
+         * Deletes the written segments unless the writing is {@link #finish() finished}.
+         */
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            for (final Path file : written) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        @NotNull
+        private Cell separate(
+                @NotNull final ByteBuffer key,
+                @NotNull final ByteBuffer value) throws IOException {
+            final int length = value.remaining();
+            if (channel != null && offset + length > MAX_SEGMENT) {
+                closeSegment();
+            }
+            if (channel == null) {
+                id = ids.getAsLong();
+                final Path file = base.resolve(name(id));
+                written.add(file);
+                channel = FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+                offset = 0;
+            }
+
+            final ByteBuffer pointer = ByteBuffer.allocate(POINTER);
+            pointer.putLong(id).putInt((int) offset).putInt(length).flip();
+            if (length > buffer.remaining()) {
+                flush();
+            }
+            if (length > buffer.capacity()) {
+                write(value.duplicate());
+            } else {
+                buffer.put(value.duplicate());
+            }
+            offset += length;
+            bytes += length;
+            references.merge(id, (long) length, Long::sum);
+            return Cell.pointer(key, pointer.asReadOnlyBuffer());
+        }
+
+        private void closeSegment() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            flush();
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        private void write(@NotNull final ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+}
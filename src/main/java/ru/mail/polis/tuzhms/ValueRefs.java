@@ -0,0 +1,124 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable set of the {@link ValueLog} segments referenced by a table with the bytes of the values
+ * it references in every segment.
+ *
+ * <p>The set recorded in the {@link Manifest} describes the references only, the set of an open table
+ * also keeps the mappings of the segments to resolve the pointers. The mappings are retained by the table,
+ * so the snapshots reading the table are not affected by the deletion of the segment files.
+ *
+ * @author tuzhms
+ */
+final class ValueRefs {
+    static final ValueRefs EMPTY = new ValueRefs(new long[0], new long[0], null);
+
+    private final long[] ids;
+    private final long[] bytes;
+    @Nullable
+    private final ByteBuffer[] segments;
+
+    private ValueRefs(
+            @NotNull final long[] ids,
+            @NotNull final long[] bytes,
+            @Nullable final ByteBuffer[] segments) {
+        this.ids = ids;
+        this.bytes = bytes;
+        this.segments = segments;
+    }
+
+    /**
+     * Creates the set from the referenced bytes keyed by the segment ids.
+     */
+    @NotNull
+    static ValueRefs of(@NotNull final Map<Long, Long> references) {
+        if (references.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<Long, Long> sorted = new TreeMap<>(references);
+        final long[] ids = new long[sorted.size()];
+        final long[] bytes = new long[sorted.size()];
+        int i = 0;
+        for (final Map.Entry<Long, Long> entry : sorted.entrySet()) {
+            ids[i] = entry.getKey();
+            bytes[i] = entry.getValue();
+            i++;
+        }
+        return new ValueRefs(ids, bytes, null);
+    }
+
+    /**
+     * Returns the same references resolved to the given mappings of the segments in the order of {@link #id(int)}.
+     */
+    @NotNull
+    ValueRefs attach(@NotNull final ByteBuffer[] mappings) {
+        if (mappings.length != ids.length) {
+            throw new IllegalArgumentException("Expected " + ids.length + " segments, got " + mappings.length);
+        }
+        return new ValueRefs(ids, bytes, mappings);
+    }
+
+    boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /**
+     * Number of the referenced segments.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    long id(final int index) {
+        return ids[index];
+    }
+
+    /**
+     * Bytes of the values referenced in the segment.
+     */
+    long bytes(final int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Returns index of the segment or a negative value if it is not referenced.
+     */
+    int indexOf(final long id) {
+        return Arrays.binarySearch(ids, id);
+    }
+
+    /**
+     * Returns the read-only mapping of the segment at the index.
+     *
+     * @throws IllegalStateException if the segments are not attached
+     */
+    @NotNull
+    ByteBuffer segment(final int index) {
+        if (segments == null) {
+            throw new IllegalStateException("Value log segments are not attached");
+        }
+        return segments[index];
+    }
+
+    /**
+     * Returns the value the pointer refers to.
+     *
+     * @throws IllegalStateException if the pointer refers to an unknown segment
+     */
+    @NotNull
+    ByteBuffer resolve(@NotNull final ByteBuffer pointer) {
+        final int index = indexOf(ValueLog.segmentOf(pointer));
+        if (index < 0) {
+            throw new IllegalStateException("Unknown value log segment " + ValueLog.segmentOf(pointer));
+        }
+        return Bytes.slice(segment(index), ValueLog.offsetOf(pointer), ValueLog.lengthOf(pointer));
+    }
+}
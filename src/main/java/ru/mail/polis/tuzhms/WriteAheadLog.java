@@ -0,0 +1,412 @@
+package ru.mail.polis.tuzhms;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.WriteBatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the writes to the current {@link MemTable} to restore it after a crash.
+ *
+ * <p>Every record is {@code [length][checksum][type][keyLength][key][valueLength][value]}
+ * or {@code [length][checksum][type][count]} followed by {@code count} entries for a batch,
+ * a torn or corrupted tail is ignored on replay. Records are buffered and handed to the operating system
+ * in batches. A writer waiting for its record to be forced to the disk becomes the leader of a group commit:
+ * it syncs everything appended so far, so the concurrent writers return without syncs of their own.
+ * The log is deleted once the memtable is flushed to a table.
+ *
+ * @author tuzhms
+ */
+final class WriteAheadLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final byte UPSERT = 0;
+    private static final byte REMOVE = 1;
+    private static final byte REMOVE_RANGE = 2;
+    private static final byte BATCH = 3;
+    private static final int HEADER = 2 * Integer.BYTES;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Config.Durability durability;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32C checksum = new CRC32C();
+    /**
+     * Serializes the syncs, so the writers queue up behind the leader.
+     */
+    private final Object syncLock = new Object();
+
+    // Guarded by this
+    private long appended;
+    private long written;
+    private boolean closed;
+
+    private volatile long synced;
+
+    private WriteAheadLog(
+            @NotNull final Path file,
+            @NotNull final FileChannel channel,
+            @NotNull final Config.Durability durability) {
+        this.file = file;
+        this.channel = channel;
+        this.durability = durability;
+    }
+
+    /**
+     * Creates the empty log.
+     */
+    @NotNull
+    static WriteAheadLog create(
+            @NotNull final Path file,
+            @NotNull final Config.Durability durability) throws IOException {
+        final FileChannel channel = FileChannel.open(
+                file,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        return new WriteAheadLog(file, channel, durability);
+    }
+
+    /**
+     * Feeds the intact records of the log to the visitor in the order they were appended.
+     */
+    static void replay(
+            @NotNull final Path file,
+            @NotNull final Visitor visitor) throws IOException {
+        final ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        final CRC32C checksum = new CRC32C();
+        int offset = 0;
+        while (mapped.limit() - offset >= HEADER) {
+            final int length = mapped.getInt(offset);
+            if (length <= 0 || length > mapped.limit() - offset - HEADER) {
+                break;
+            }
+            final ByteBuffer body = slice(mapped, offset + HEADER, length);
+            checksum.reset();
+            checksum.update(body.duplicate());
+            if ((int) checksum.getValue() != mapped.getInt(offset + Integer.BYTES)) {
+                break;
+            }
+            decode(body, visitor);
+            offset += HEADER + length;
+        }
+        if (offset < mapped.limit()) {
+            log.warn("Ignoring {} bytes of the torn tail of {}", mapped.limit() - offset, file);
+        }
+    }
+
+    @NotNull
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Appends the record.
+     *
+     * @param value value or {@code null} for a tombstone
+     * @return position to {@link #commit(long)} the record up to
+     */
+    long upsert(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) throws IOException {
+        return append(
+                1 + sizeOf(key, value),
+                target -> {
+                    target.put(value == null ? REMOVE : UPSERT);
+                    put(target, key, value);
+                });
+    }
+
+    /**
+     * Appends the range tombstone {@code [from, to)}.
+     *
+     * @return position to {@link #commit(long)} the record up to
+     */
+    long removeRange(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) throws IOException {
+        return append(
+                1 + sizeOf(from, to),
+                target -> {
+                    target.put(REMOVE_RANGE);
+                    put(target, from, to);
+                });
+    }
+
+    /**
+     * Appends the batch as a single record, so it is replayed either completely or not at all.
+     *
+     * @return position to {@link #commit(long)} the record up to
+     */
+    long write(@NotNull final WriteBatch batch) throws IOException {
+        int length = 1 + Integer.BYTES;
+        for (int i = 0; i < batch.size(); i++) {
+            length += sizeOf(batch.key(i), batch.value(i));
+        }
+        return append(
+                length,
+                target -> {
+                    target.put(BATCH);
+                    target.putInt(batch.size());
+                    for (int i = 0; i < batch.size(); i++) {
+                        put(target, batch.key(i), batch.value(i));
+                    }
+                });
+    }
+
+    /**
+     * Makes the records up to the position as durable as required by {@link Config.Durability}.
+     * Records of the closed log are already persisted in a table.
+     */
+    void commit(final long position) throws IOException {
+        switch (durability) {
+            case NONE:
+                // The page cache keeps the record if the process crashes, see Config.Durability#NONE
+                write(position);
+                break;
+            case PERIODIC:
+                break;
+            case SYNC:
+                sync(position);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported durability: " + durability);
+        }
+    }
+
+    /**
+     * Forces all the appended records to the disk.
+     */
+    void sync() throws IOException {
+        final long position;
+        synchronized (this) {
+            position = appended;
+        }
+        sync(position);
+    }
+
+    /**
+     * Hands all the appended records to the operating system, so the periodic syncs persist them
+     * once the log gets no more records.
+     */
+    void writeAll() throws IOException {
+        final long position;
+        synchronized (this) {
+            position = appended;
+        }
+        write(position);
+    }
+
+    /**
+     * Closes the log without syncing: the records must already be persisted in a table.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        channel.close();
+    }
+
+    private synchronized long append(
+            final int length,
+            @NotNull final Consumer<ByteBuffer> body) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Log is closed: " + file);
+        }
+
+        if (buffer.remaining() < HEADER + length) {
+            drain();
+        }
+        if (buffer.remaining() < HEADER + length) {
+            // Oversized record bypasses the buffer
+            final ByteBuffer record = ByteBuffer.allocate(HEADER + length);
+            encode(record, length, body);
+            record.flip();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            appended += HEADER + length;
+            written = appended;
+            return appended;
+        }
+
+        encode(buffer, length, body);
+        appended += HEADER + length;
+        return appended;
+    }
+
+    private void encode(
+            @NotNull final ByteBuffer target,
+            final int length,
+            @NotNull final Consumer<ByteBuffer> body) {
+        final int start = target.position();
+        target.position(start + HEADER);
+        body.accept(target);
+
+        checksum.reset();
+        checksum.update(slice(target, start + HEADER, length));
+        target.putInt(start, length);
+        target.putInt(start + Integer.BYTES, (int) checksum.getValue());
+    }
+
+    private static int sizeOf(
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        return Integer.BYTES + key.remaining() + Integer.BYTES + (value == null ? 0 : value.remaining());
+    }
+
+    private static void put(
+            @NotNull final ByteBuffer target,
+            @NotNull final ByteBuffer key,
+            @Nullable final ByteBuffer value) {
+        target.putInt(key.remaining());
+        target.put(key.duplicate());
+        if (value == null) {
+            target.putInt(SSTable.TOMBSTONE);
+        } else {
+            target.putInt(value.remaining());
+            target.put(value.duplicate());
+        }
+    }
+
+    private static void decode(
+            @NotNull final ByteBuffer body,
+            @NotNull final Visitor visitor) throws IOException {
+        final byte type = body.get();
+        switch (type) {
+            case UPSERT:
+            case REMOVE:
+                visitor.upsert(readKey(body), read(body));
+                break;
+            case REMOVE_RANGE:
+                visitor.removeRange(readKey(body), readKey(body));
+                break;
+            case BATCH:
+                final int count = body.getInt();
+                for (int i = 0; i < count; i++) {
+                    visitor.upsert(readKey(body), read(body));
+                }
+                break;
+            default:
+                throw new IOException("Unknown record type: " + type);
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer readKey(@NotNull final ByteBuffer body) throws IOException {
+        final ByteBuffer key = read(body);
+        if (key == null) {
+            throw new IOException("Missing key");
+        }
+        return key;
+    }
+
+    /**
+     * Reads the length-prefixed buffer or {@code null} for a tombstone.
+     */
+    @Nullable
+    private static ByteBuffer read(@NotNull final ByteBuffer body) {
+        final int length = body.getInt();
+        if (length == SSTable.TOMBSTONE) {
+            return null;
+        }
+        final ByteBuffer result = slice(body, body.position(), length);
+        body.position(body.position() + length);
+        return result;
+    }
+
+    /**
+     * Returns the view of the region of the buffer with the positions relative to the buffer.
+     */
+    @NotNull
+    private static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        return buffer.duplicate().limit(offset + length).position(offset);
+    }
+
+    /**
+     * Hands the records up to the position to the operating system.
+     */
+    private synchronized void write(final long position) throws IOException {
+        if (closed || written >= position) {
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Forces the records up to the position to the disk unless the concurrent sync has done it already.
+     */
+    private void sync(final long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            final long target;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                drain();
+                target = written;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // The memtable is flushed concurrently
+                return;
+            }
+            synced = target;
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        written = appended;
+    }
+
+    /**
+     * Receives the replayed records.
+     */
+    interface Visitor {
+        /**
+         * Receives an upsert or a removal.
+         *
+         * @param value value or {@code null} for a tombstone
+         */
+        void upsert(
+                @NotNull ByteBuffer key,
+                @Nullable ByteBuffer value) throws IOException;
+
+        void removeRange(
+                @NotNull ByteBuffer from,
+                @NotNull ByteBuffer to) throws IOException;
+    }
+}
@@ -0,0 +1,119 @@
+package ru.mail.polis.tuzhms;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Slows the writes of {@link LSMDao} down and then stalls them once the flushes or the compactions fall behind.
+ *
+ * <p>The pressure is the largest of the memory held by the memtables and the block cache and of the size
+ * of the pending compactions, each scaled to {@code 0} at its slowdown limit and to {@code 1} at its stop limit.
+ * Between the limits the writes are throttled to {@link Config#getDelayedWriteRate()} decreasing linearly
+ * down to 1/{@value #STEPS} of it, so the latency grows smoothly before the writers stall.
+ * The rate is changed in steps only, so evaluating the pressure on every write is cheap.
+ *
+ * @author tuzhms
+ */
+final class WriteController {
+    private static final int STEPS = 16;
+
+    private final long memorySlowdown;
+    private final long memoryStop;
+    private final long debtSlowdown;
+    private final long debtStop;
+    private final long delayedWriteRate;
+    /**
+     * Limiter of the throttled writes recreated once throttling starts not to let through
+     * the burst saved up while the writes were not throttled.
+     */
+    private volatile RateLimiter limiter;
+
+    /**
+     * Throttling step from {@code 1} for the full delayed rate to {@link #STEPS} for the slowest one,
+     * {@code 0} if the writes are not throttled. Changed under the storage lock.
+     */
+    private volatile int step;
+    private volatile boolean stopped;
+
+    /**
+     * Creates the controller with the limits of the config.
+     *
+     * @param config storage settings
+     * @param budget memory the limits are relative to in bytes
+     */
+    WriteController(
+            @NotNull final Config config,
+            final long budget) {
+        this.memorySlowdown = (long) (budget * config.getWriteSlowdownMemoryRatio());
+        this.memoryStop = (long) (budget * config.getWriteStopMemoryRatio());
+        this.debtSlowdown = (long) (budget * config.getWriteSlowdownDebtRatio());
+        this.debtStop = (long) (budget * config.getWriteStopDebtRatio());
+        this.delayedWriteRate = config.getDelayedWriteRate();
+        this.limiter = RateLimiter.create(delayedWriteRate);
+    }
+
+    /**
+     * Reevaluates the pressure, called under the storage lock.
+     *
+     * @param memory bytes held by the memtables and the block cache
+     * @param debt   bytes of the pending compactions
+     */
+    void update(
+            final long memory,
+            final long debt) {
+        final double pressure = Math.max(
+                pressure(memory, memorySlowdown, memoryStop),
+                pressure(debt, debtSlowdown, debtStop));
+        stopped = pressure >= 1.0;
+        final int current = pressure < 0.0 ? 0 : Math.min((int) (pressure * STEPS), STEPS - 1) + 1;
+        if (current == step) {
+            return;
+        }
+        if (current > 0) {
+            final double rate = (double) delayedWriteRate * (STEPS + 1 - current) / STEPS;
+            if (step == 0) {
+                limiter = RateLimiter.create(rate);
+            } else {
+                limiter.setRate(rate);
+            }
+        }
+        step = current;
+    }
+
+    /**
+     * Waits for the write to fit the rate if the writes are throttled.
+     *
+     * @param bytes memtable bytes of the write
+     * @return the time waited in nanoseconds
+     */
+    long delay(final long bytes) {
+        if (step == 0) {
+            return 0L;
+        }
+        final double seconds = limiter.acquire((int) Math.max(Math.min(bytes, Integer.MAX_VALUE), 1L));
+        return (long) (seconds * 1_000_000_000L);
+    }
+
+    /**
+     * Whether the writes should stall rather than switch to a new memtable.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Scales the value to {@code 0} at the slowdown limit and to {@code 1} at the stop limit.
+     */
+    private static double pressure(
+            final long value,
+            final long slowdown,
+            final long stop) {
+        if (value < slowdown) {
+            return -1.0;
+        }
+        if (value >= stop) {
+            return 1.0;
+        }
+        return (double) (value - slowdown) / (stop - slowdown);
+    }
+}
@@ -4,8 +4,17 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Unit tests for {@link Iters} facilities.
@@ -27,6 +36,18 @@ class ItersTest {
         assertEquals(6, Iterators.size(Iters.until(sixNumbers.iterator(), 100)));
     }
 
+    @Test
+    void downTo() {
+        assertFalse(Iters.downTo(Iters.empty(), 0).hasNext());
+
+        final ImmutableList<Integer> sixNumbers = ImmutableList.of(6, 5, 4, 3, 2, 1);
+
+        assertFalse(Iters.downTo(sixNumbers.iterator(), 7).hasNext());
+        assertEquals(1, Iterators.size(Iters.downTo(sixNumbers.iterator(), 6)));
+        assertEquals(3, Iterators.size(Iters.downTo(sixNumbers.iterator(), 4)));
+        assertEquals(6, Iterators.size(Iters.downTo(sixNumbers.iterator(), 0)));
+    }
+
     @Test
     void collapseEquals() {
         assertFalse(Iters.collapseEquals(Iters.empty()).hasNext());
@@ -39,4 +60,65 @@ class ItersTest {
                 ImmutableList.of(1, 2, 3, 5, 6),
                 ImmutableList.copyOf(collapsed));
     }
+
+    @Test
+    void merge() {
+        assertFalse(Iters.merge(ImmutableList.of(), Comparator.naturalOrder()).hasNext());
+
+        final Integer[] merged = Iterators.toArray(
+                Iters.merge(
+                        ImmutableList.of(
+                                ImmutableList.of(1, 4, 6).iterator(),
+                                Iters.<Integer>empty(),
+                                ImmutableList.of(2, 3, 4, 7).iterator(),
+                                ImmutableList.of(1, 5, 6).iterator()),
+                        Comparator.naturalOrder()),
+                Integer.class);
+        assertEquals(
+                ImmutableList.of(1, 2, 3, 4, 5, 6, 7),
+                ImmutableList.copyOf(merged));
+    }
+
+    @Test
+    void mergeNewestWins() {
+        // Versions are {key, source}, negative sources stand for tombstones
+        final Random random = new Random(42);
+        final List<TreeMap<Integer, int[]>> sources = new ArrayList<>();
+        for (int source = 0; source < 32; source++) {
+            final TreeMap<Integer, int[]> versions = new TreeMap<>();
+            for (int i = 0; i < 100; i++) {
+                final int key = random.nextInt(1000);
+                final boolean tombstone = random.nextInt(4) == 0;
+                versions.put(key, new int[]{key, tombstone ? -source - 1 : source});
+            }
+            sources.add(versions);
+        }
+
+        // The first source containing the key is the newest one
+        final Map<Integer, Integer> expected = new TreeMap<>();
+        final List<Iterator<int[]>> iters = new ArrayList<>();
+        for (int source = sources.size() - 1; source >= 0; source--) {
+            for (final int[] version : sources.get(source).values()) {
+                if (version[1] >= 0) {
+                    expected.put(version[0], version[1]);
+                } else {
+                    expected.remove(version[0]);
+                }
+            }
+        }
+        for (final TreeMap<Integer, int[]> versions : sources) {
+            iters.add(versions.values().iterator());
+        }
+
+        final Map<Integer, Integer> actual = new TreeMap<>();
+        final Iterator<int[]> merged = Iters.merge(iters, Comparator.comparingInt(e -> e[0]), e -> e[1] < 0);
+        int previous = Integer.MIN_VALUE;
+        while (merged.hasNext()) {
+            final int[] next = merged.next();
+            assertTrue(next[0] > previous);
+            previous = next[0];
+            actual.put(next[0], next[1]);
+        }
+        assertEquals(expected, actual);
+    }
 }
@@ -0,0 +1,105 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link BlockCache}.
+ *
+ * @author tuzhms
+ */
+class BlockCacheTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void clock() {
+        final BlockCache cache = new BlockCache(3);
+        final AtomicReferenceArray<BlockCache.Entry> slots = BlockCache.slots(4);
+        for (int i = 0; i < 3; i++) {
+            assertNull(cache.get(slots, i));
+            cache.put(slots, i, ByteBuffer.wrap(new byte[]{(byte) i}));
+        }
+        // The second chance is given to all the blocks, the oldest one goes first
+        cache.put(slots, 3, ByteBuffer.wrap(new byte[]{3}));
+        assertNull(slots.get(0));
+
+        // The referenced block survives
+        assertNotNull(cache.get(slots, 1));
+        cache.put(slots, 0, ByteBuffer.wrap(new byte[]{0}));
+        assertNotNull(slots.get(1));
+        assertEquals(1, cache.get(slots, 1).get(0));
+
+        final CacheStats stats = cache.stats();
+        assertEquals(2, stats.getEvictions());
+        assertEquals(3, stats.getSize());
+        assertEquals(2, stats.getHits());
+        assertEquals(3, stats.getMisses());
+    }
+
+    @Test
+    void oversized() {
+        final BlockCache cache = new BlockCache(1);
+        final AtomicReferenceArray<BlockCache.Entry> slots = BlockCache.slots(1);
+        final ByteBuffer block = ByteBuffer.wrap(new byte[]{1, 2});
+        assertSame(block, cache.put(slots, 0, block));
+        assertNull(slots.get(0));
+    }
+
+    @Test
+    void reads(@TempDir File data) throws IOException {
+        final Config config =
+                Config.builder()
+                        .flushThreshold(64 * 1024)
+                        .blockSize(256)
+                        .compression(Config.Compression.LZ)
+                        .blockCacheCapacity(16 * 1024)
+                        .build();
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+            }
+            dao.remove(key(1));
+        }
+
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < KEYS; i += 3) {
+                    if (i != 1) {
+                        assertEquals(key(i), dao.get(key(i)));
+                    }
+                }
+                final Iterator<Record> records = dao.iterator(key(0));
+                for (int i = 0; i < KEYS; i++) {
+                    if (i != 1) {
+                        assertEquals(key(i), records.next().getValue());
+                    }
+                }
+                assertFalse(records.hasNext());
+            }
+
+            final CacheStats stats = dao.cacheStats();
+            assertTrue(stats.getHits() > 0, stats.toString());
+            assertTrue(stats.getEvictions() > 0, stats.toString());
+            assertTrue(stats.getSize() <= stats.getCapacity(), stats.toString());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link BloomFilter} and its usage by point lookups.
+ *
+ * @author tuzhms
+ */
+class BloomFilterTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        final ByteBuffer result = ByteBuffer.allocate(Integer.BYTES);
+        result.putInt(i);
+        result.rewind();
+        return result;
+    }
+
+    @Test
+    void falsePositives() {
+        final BloomFilter filter = BloomFilter.create(KEYS, 10);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(key(i));
+        }
+
+        int positives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(key(i)));
+            if (filter.mightContain(key(KEYS + i))) {
+                positives++;
+            }
+        }
+        // About 1% is expected
+        assertTrue(positives < KEYS / 50, "Too many false positives: " + positives);
+    }
+
+    @Test
+    void byteOrder() {
+        final BloomFilter filter = BloomFilter.create(1, 10);
+        final ByteBuffer key = ByteBuffer.allocate(Long.BYTES * 2 + 1);
+        key.putLong(42L).putLong(-1L).put((byte) 7).rewind();
+        filter.add(key);
+        assertTrue(filter.mightContain(key.duplicate().order(ByteOrder.LITTLE_ENDIAN)));
+    }
+
+    @Test
+    void skipTables(@TempDir File data) throws IOException {
+        final Config config = Config.builder()
+                .flushThreshold(64 * 1024)
+                .build();
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+            }
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer absent = key(KEYS + i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(absent));
+            }
+            final FilterStats stats = dao.filterStats();
+            assertEquals(0L, stats.getHits());
+            assertTrue(stats.getFalsePositiveRate() < 0.02, stats.toString());
+
+            assertEquals(key(0), dao.get(key(0)));
+            assertEquals(1L, dao.filterStats().getHits());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link Bytes} comparing the keys in the same order as {@link ByteBuffer#compareTo}.
+ *
+ * @author tuzhms
+ */
+class BytesTest {
+    private static ByteBuffer buffer(
+            final byte[] bytes,
+            final int offset,
+            final boolean direct,
+            final ByteOrder order) {
+        final int size = offset + bytes.length;
+        final ByteBuffer result = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        result.position(offset);
+        result.put(bytes);
+        result.position(offset);
+        return result.order(order);
+    }
+
+    @Test
+    void order() {
+        final Random random = new Random(1);
+        final ByteOrder[] orders = {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN};
+        for (int i = 0; i < 100_000; i++) {
+            final byte[] left = new byte[random.nextInt(40)];
+            random.nextBytes(left);
+            // Common prefix of any length followed by an arbitrary tail
+            final byte[] right = new byte[random.nextInt(40)];
+            random.nextBytes(right);
+            System.arraycopy(left, 0, right, 0, Math.min(random.nextInt(40), Math.min(left.length, right.length)));
+
+            final ByteBuffer l = buffer(left, random.nextInt(8), random.nextBoolean(), orders[random.nextInt(2)]);
+            final ByteBuffer r = buffer(right, random.nextInt(8), random.nextBoolean(), orders[random.nextInt(2)]);
+            final int expected = Integer.signum(ByteBuffer.wrap(left).compareTo(ByteBuffer.wrap(right)));
+            assertEquals(expected, Integer.signum(Bytes.compare(l, r, r.position(), r.remaining())));
+            assertEquals(-expected, Integer.signum(Bytes.compare(r, l, l.position(), l.remaining())));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for background compaction by {@link Compactor}.
+ *
+ * @author tuzhms
+ */
+class CompactionTest {
+    private static final int KEYS = 1_000;
+    private static final int ROUNDS = 16;
+
+    private static ByteBuffer bytes(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer key(final int i) {
+        return bytes(String.format("%05d", i));
+    }
+
+    private static Config config(final int threads) {
+        return config(threads, Config.CompactionStyle.SIZE_TIERED);
+    }
+
+    private static Config config(
+            final int threads,
+            final Config.CompactionStyle style) {
+        return Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionThreads(threads)
+                .compactionThresholds(4, 8)
+                .compactionStyle(style)
+                .levelTableSize(1024)
+                .levelSizeRatio(2)
+                .build();
+    }
+
+    private static void await(
+            final BooleanSupplier condition,
+            final Supplier<String> message) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), message.get());
+    }
+
+    private static void awaitTables(
+            final LSMDao dao,
+            final int max) throws InterruptedException {
+        await(() -> dao.tables().size() <= max, () -> "Too many tables: " + dao.tables().size());
+    }
+
+    private static void checkLevels(final Tables tables) {
+        for (int level = 1; level < tables.levels(); level++) {
+            ByteBuffer previous = null;
+            for (final SSTable table : tables.level(level)) {
+                assertEquals(level, table.getLevel());
+                if (previous != null) {
+                    assertTrue(previous.compareTo(table.getMinKey()) < 0, "Overlapping tables on level " + level);
+                }
+                previous = table.getMaxKey();
+            }
+        }
+    }
+
+    private static void check(final LSMDao dao) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            if (i % 2 == 0) {
+                assertEquals(bytes("value" + (ROUNDS - 1)), dao.get(key(i)));
+            } else {
+                final ByteBuffer removed = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+            }
+        }
+    }
+
+    private static void fill(final LSMDao dao) throws IOException {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 2 == 1 && round == ROUNDS - 1) {
+                    dao.remove(key(i));
+                } else {
+                    dao.upsert(key(i), bytes("value" + round));
+                }
+            }
+        }
+    }
+
+    private static SSTable table(
+            final File data,
+            final int level,
+            final List<Cell> cells) throws IOException {
+        final long id = Objects.requireNonNull(data.list()).length;
+        final Path file = data.toPath().resolve(id + ".sst");
+        // The deeper levels are older
+        final long generation = LeveledStrategy.MAX_LEVEL - level;
+        SSTable.write(file, data.toPath().resolve(id + ".tmp"), config(0), generation, level, cells.size(),
+                cells.iterator(), () -> RangeTombstones.EMPTY);
+        return SSTable.open(file);
+    }
+
+    @Test
+    void newestWins(@TempDir File data) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(1))) {
+            fill(dao);
+            awaitTables(dao, 4);
+            check(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config(0))) {
+            check(dao);
+            // Compacted tables are deleted
+            final String[] files = data.list((dir, name) -> name.endsWith(".sst"));
+            assertEquals(Objects.requireNonNull(files).length, dao.tables().size());
+        }
+    }
+
+    @Test
+    void leveled(@TempDir File data) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(2, Config.CompactionStyle.LEVELED))) {
+            fill(dao);
+            await(() -> dao.tables().levels() > 2, () -> "Too few levels: " + dao.tables().levels());
+            check(dao);
+            checkLevels(dao.tables());
+        }
+        try (LSMDao dao = new LSMDao(data, config(0, Config.CompactionStyle.LEVELED))) {
+            check(dao);
+            checkLevels(dao.tables());
+        }
+    }
+
+    @Test
+    void purgeTombstones(@TempDir File data) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(0))) {
+            fill(dao);
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.remove(key(i));
+            }
+        }
+        try (LSMDao dao = new LSMDao(data, config(1))) {
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+            await(() -> dao.tables().size() == 0, () -> "Tables left: " + dao.tables().size());
+        }
+        // Only the manifest remains
+        assertEquals(0, Objects.requireNonNull(data.list((dir, name) -> !name.equals(Manifest.NAME))).length);
+    }
+
+    @Test
+    void leveledTombstonesShadowDeeperLevels(@TempDir File data) throws IOException {
+        final List<Cell> upper = new ArrayList<>();
+        for (int i = 100; i < 200; i++) {
+            upper.add(new Cell(key(i), bytes("upper")));
+        }
+        // The next level table reaches past the upper one with the tombstone of the value of the deeper level
+        final Tables tables = Tables.of(List.of(
+                table(data, 1, upper),
+                table(data, 2, List.of(new Cell(key(150), bytes("next")), new Cell(key(300), null))),
+                table(data, 3, List.of(new Cell(key(300), bytes("deep"))))));
+        final Config config = Config.builder()
+                .compactionStyle(Config.CompactionStyle.LEVELED)
+                .levelTableSize(1)
+                .levelSizeRatio(10)
+                .build();
+
+        final Compaction compaction = new LeveledStrategy(config).pick(tables, Set.of());
+        assertEquals(2, Objects.requireNonNull(compaction).getInputs().size());
+        assertFalse(compaction.isDropTombstones());
+    }
+
+    @Test
+    void compactOnStartup(@TempDir File data) throws Exception {
+        final int flushed;
+        try (LSMDao dao = new LSMDao(data, config(0))) {
+            fill(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config(0))) {
+            flushed = dao.tables().size();
+        }
+        assertTrue(flushed > 4, "Not enough tables: " + flushed);
+
+        try (LSMDao dao = new LSMDao(data, config(2))) {
+            awaitTables(dao, 4);
+            check(dao);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Cursor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LSMDao#cursor()} merging the views of the memtables and the tables.
+ *
+ * @author tuzhms
+ */
+class CursorTest {
+    private static final int KEYS = 5_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Config config() {
+        return Config.builder()
+                .flushThreshold(32 * 1024)
+                .compression(Config.Compression.NONE)
+                .build();
+    }
+
+    private static void check(
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final Cursor cursor,
+            final ByteBuffer from) {
+        cursor.seek(from);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.tailMap(from, true).entrySet()) {
+            assertTrue(cursor.valid());
+            assertEquals(entry.getKey(), cursor.key());
+            assertEquals(entry.getValue(), cursor.value());
+            cursor.next();
+        }
+        assertFalse(cursor.valid());
+    }
+
+    @Test
+    void random(@TempDir File data) throws IOException {
+        final Random random = new Random(1);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (LSMDao dao = new LSMDao(data, config())) {
+            for (int i = 0; i < 4 * KEYS; i++) {
+                final int k = random.nextInt(KEYS);
+                final int operation = random.nextInt(100);
+                if (operation < 70) {
+                    final ByteBuffer value = key(random.nextInt(KEYS));
+                    dao.upsert(key(k), value);
+                    expected.put(key(k), value);
+                } else if (operation < 99) {
+                    dao.remove(key(k));
+                    expected.remove(key(k));
+                } else {
+                    final int to = Math.min(KEYS, k + random.nextInt(100));
+                    dao.removeRange(key(k), key(to));
+                    expected.subMap(key(k), key(to)).clear();
+                }
+            }
+
+            // The same cursor is reused for the seeks
+            final Cursor cursor = dao.cursor();
+            assertFalse(cursor.valid());
+            for (final int from : new int[]{0, KEYS / 3, 1, KEYS - 1, KEYS}) {
+                check(expected, cursor, key(from));
+            }
+        }
+    }
+
+    @Test
+    void allocations(@TempDir File data) throws IOException {
+        try (LSMDao dao = new LSMDao(data, config())) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+            }
+            final Cursor cursor = dao.cursor();
+            // Warm up
+            for (int i = 0; i < 10; i++) {
+                scan(cursor);
+            }
+
+            final com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            assertEquals(KEYS, scan(cursor));
+            final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            // Just the views of the blocks
+            assertTrue(allocated < KEYS * 8L, "Allocated " + allocated + " bytes");
+        }
+    }
+
+    private static int scan(final Cursor cursor) {
+        int count = 0;
+        for (cursor.seek(ByteBuffer.allocate(0)); cursor.valid(); cursor.next()) {
+            count += cursor.value().remaining() > 0 ? 1 : 0;
+        }
+        return count;
+    }
+}
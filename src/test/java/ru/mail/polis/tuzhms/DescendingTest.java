@@ -0,0 +1,90 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Unit tests for {@link LSMDao#descendingIterator(ByteBuffer)} and {@link LSMDao#descendingRange}
+ * merging the memtables and the tables backwards.
+ *
+ * @author tuzhms
+ */
+class DescendingTest {
+    private static final int KEYS = 5_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void check(
+            final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expected,
+            final Iterator<Record> actual) {
+        while (expected.hasNext()) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = expected.next();
+            final Record record = actual.next();
+            assertEquals(entry.getKey(), record.getKey());
+            assertEquals(entry.getValue(), record.getValue());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    private static void check(
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final LSMDao dao) {
+        for (final int from : new int[]{0, 1, KEYS / 3, KEYS - 1, KEYS}) {
+            check(expected.headMap(key(from), true).descendingMap().entrySet().iterator(),
+                    dao.descendingIterator(key(from)));
+        }
+        check(expected.subMap(key(KEYS / 4), true, key(KEYS / 2), false).descendingMap().entrySet().iterator(),
+                dao.descendingRange(key(KEYS / 4), key(KEYS / 2)));
+        check(expected.tailMap(key(KEYS / 2), true).descendingMap().entrySet().iterator(),
+                dao.descendingRange(key(KEYS / 2), null));
+    }
+
+    @Test
+    void random(@TempDir File data) throws IOException {
+        final Random random = new Random(1);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final Config config =
+                Config.builder()
+                        .flushThreshold(32 * 1024)
+                        .blockSize(256)
+                        .build();
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < 4 * KEYS; i++) {
+                final int k = random.nextInt(KEYS);
+                final int operation = random.nextInt(100);
+                if (operation < 70) {
+                    final ByteBuffer value = key(random.nextInt(KEYS));
+                    dao.upsert(key(k), value);
+                    expected.put(key(k), value);
+                } else if (operation < 99) {
+                    dao.remove(key(k));
+                    expected.remove(key(k));
+                } else {
+                    final int to = Math.min(KEYS, k + random.nextInt(100));
+                    dao.removeRange(key(k), key(to));
+                    expected.subMap(key(k), key(to)).clear();
+                }
+            }
+            check(expected, dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config)) {
+            check(expected, dao);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Unit tests for the background flush of the full memtables.
+ *
+ * @author tuzhms
+ */
+class FlushTest {
+    private static final int KEYS = 20_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void readWhileFlushing(@TempDir File data) throws IOException {
+        final Config config =
+                Config.builder()
+                        .flushThreshold(16 * 1024)
+                        .maxPendingFlushes(1)
+                        .compactionThreads(0)
+                        .build();
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+                // Visible at once wherever it is
+                assertEquals(key(i / 2), dao.get(key(i / 2)));
+            }
+
+            final Iterator<Record> records = dao.iterator(key(0));
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(key(i), records.next().getKey());
+            }
+            assertFalse(records.hasNext());
+        }
+
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+        }
+    }
+}
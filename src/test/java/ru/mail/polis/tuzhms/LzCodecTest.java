@@ -0,0 +1,89 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LzCodec} round trips.
+ *
+ * @author tuzhms
+ */
+class LzCodecTest {
+    private static byte[] roundTrip(final byte[] block) throws IOException {
+        final LzCodec codec = new LzCodec();
+        final byte[] compressed = new byte[block.length * 2 + 16];
+        final int length = codec.compress(block, block.length, compressed);
+        assertTrue(length > 0);
+        final byte[] restored = new byte[block.length];
+        codec.decompress(ByteBuffer.wrap(compressed, 0, length).slice(), restored);
+        assertEquals(ByteBuffer.wrap(block), ByteBuffer.wrap(restored));
+        return Arrays.copyOf(compressed, length);
+    }
+
+    @Test
+    void text() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("key").append(i).append("=value").append(i % 7);
+        }
+        final byte[] block = text.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue(roundTrip(block).length < block.length / 2);
+    }
+
+    @Test
+    void run() throws IOException {
+        // The match overlaps with itself and both lengths need the extension bytes
+        final byte[] block = new byte[10_000];
+        Arrays.fill(block, 20, block.length, (byte) 42);
+        assertTrue(roundTrip(block).length < 100);
+    }
+
+    @Test
+    void random() throws IOException {
+        final Random random = new Random(1);
+        for (final int length : new int[]{0, 1, 3, 4, 5, 15, 16, 300, 70_000}) {
+            final byte[] block = new byte[length];
+            random.nextBytes(block);
+            if (length > 0) {
+                roundTrip(block);
+            }
+            // Incompressible data doesn't fit into the smaller buffer
+            assertEquals(length == 0 ? 0 : -1, new LzCodec().compress(block, length, new byte[length]));
+        }
+    }
+
+    @Test
+    void reuse() throws IOException {
+        final Random random = new Random(2);
+        final LzCodec codec = new LzCodec();
+        final byte[] compressed = new byte[1024];
+        for (int i = 0; i < 10; i++) {
+            final byte[] block = new byte[512];
+            for (int j = 0; j < block.length; j++) {
+                block[j] = (byte) random.nextInt(4);
+            }
+            final int length = codec.compress(block, block.length, compressed);
+            final byte[] restored = new byte[block.length];
+            codec.decompress(ByteBuffer.wrap(compressed, 0, length).slice(), restored);
+            assertEquals(ByteBuffer.wrap(block), ByteBuffer.wrap(restored));
+        }
+    }
+
+    @Test
+    void corrupted() {
+        // The match points before the start of the block
+        final byte[] compressed = {0x10, 'a', 0x05, 0x00};
+        assertThrows(IOException.class, () -> new LzCodec().decompress(ByteBuffer.wrap(compressed), new byte[8]));
+        // Truncated
+        assertThrows(IOException.class, () -> new LzCodec().decompress(ByteBuffer.wrap(compressed, 0, 2), new byte[8]));
+    }
+}
@@ -0,0 +1,129 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Manifest} tracking the live files of the storage.
+ *
+ * @author tuzhms
+ */
+class ManifestTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Config config() {
+        return Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionThreads(0)
+                .build();
+    }
+
+    private static void fill(final File data) throws IOException {
+        try (LSMDao dao = new LSMDao(data, config())) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+            }
+        }
+    }
+
+    private static void check(final LSMDao dao) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(key(i), dao.get(key(i)));
+        }
+    }
+
+    @Test
+    void reopen(@TempDir File data) throws Exception {
+        fill(data);
+        final Path base = data.toPath();
+        assertTrue(Manifest.exists(base));
+        try (Manifest manifest = Manifest.open(base)) {
+            assertTrue(manifest.getTables().size() > 1);
+            assertTrue(manifest.getLogs().isEmpty());
+            for (final Manifest.TableEntry table : manifest.getTables()) {
+                assertTrue(Files.exists(base.resolve(table.getName())));
+            }
+        }
+
+        // Orphan table of the interrupted flush and the file of the user, the first id belongs to a log
+        final Path orphan = base.resolve("0.sst");
+        Files.write(orphan, new byte[]{1, 2, 3});
+        final Path foreign = base.resolve("trash.sst");
+        Files.write(foreign, new byte[]{1, 2, 3});
+        try (LSMDao dao = new LSMDao(data, config())) {
+            check(dao);
+            // Wait for the background cleanup
+            for (int i = 0; i < 100 && Files.exists(orphan); i++) {
+                Thread.sleep(10);
+            }
+        }
+        assertFalse(Files.exists(orphan));
+        assertTrue(Files.exists(foreign));
+    }
+
+    @Test
+    void startup(@TempDir File data) throws IOException {
+        fill(data);
+        for (final int threads : new int[]{1, 4}) {
+            final Config config =
+                    Config.builder()
+                            .compactionThreads(0)
+                            .openThreads(threads)
+                            .build();
+            try (LSMDao dao = new LSMDao(data, config)) {
+                final StartupStats before = dao.startupStats();
+                assertEquals(dao.tables().size(), before.getTables());
+                assertTrue(before.getOpenNanos() > 0);
+                assertEquals(-1L, before.getFirstGetNanos());
+
+                check(dao);
+                assertTrue(dao.startupStats().getFirstGetNanos() >= before.getOpenNanos());
+            }
+        }
+    }
+
+    @Test
+    void tornTail(@TempDir File data) throws IOException {
+        fill(data);
+        final Path file = data.toPath().resolve(Manifest.NAME);
+        Files.write(file, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+        final long size = Files.size(file);
+
+        try (LSMDao dao = new LSMDao(data, config())) {
+            check(dao);
+        }
+        // Rewritten without the tail
+        assertTrue(Files.size(file) < size);
+    }
+
+    @Test
+    void upgrade(@TempDir File data) throws IOException {
+        fill(data);
+        // Storage written before the manifest was introduced
+        Files.delete(data.toPath().resolve(Manifest.NAME));
+
+        try (LSMDao dao = new LSMDao(data, config())) {
+            check(dao);
+        }
+        assertTrue(Manifest.exists(data.toPath()));
+        try (LSMDao dao = new LSMDao(data, config())) {
+            check(dao);
+        }
+    }
+}
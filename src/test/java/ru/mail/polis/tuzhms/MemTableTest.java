@@ -0,0 +1,120 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for off-heap {@link MemTable}.
+ *
+ * @author tuzhms
+ */
+class MemTableTest {
+    private static ByteBuffer bytes(final String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sorted() {
+        final MemTable memTable = new MemTable(64 * 1024);
+        for (int i = 99; i >= 0; i--) {
+            assertTrue(memTable.put(bytes(String.format("%03d", i)), bytes("v" + i)));
+        }
+        assertEquals(100, memTable.size());
+
+        final Iterator<Cell> cells = memTable.iterator(bytes("050"));
+        for (int i = 50; i < 100; i++) {
+            final Cell cell = cells.next();
+            assertEquals(bytes(String.format("%03d", i)), cell.getKey());
+            assertEquals(bytes("v" + i), cell.getValue());
+        }
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void descending() {
+        final MemTable memTable = new MemTable(64 * 1024);
+        assertFalse(memTable.descendingIterator(null, MemTable.LATEST).hasNext());
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(memTable.put(bytes(String.format("%03d", i)), bytes("v" + i)));
+        }
+        final int mark = memTable.mark();
+        for (int i = 99; i > 0; i -= 2) {
+            assertTrue(memTable.put(bytes(String.format("%03d", i)), bytes("v" + i)));
+        }
+
+        final Iterator<Cell> cells = memTable.descendingIterator(bytes("050"), MemTable.LATEST);
+        for (int i = 50; i >= 0; i--) {
+            assertEquals(bytes(String.format("%03d", i)), cells.next().getKey());
+        }
+        assertFalse(cells.hasNext());
+
+        // The odd keys are written after the mark
+        final Iterator<Cell> old = memTable.descendingIterator(null, mark);
+        for (int i = 98; i >= 0; i -= 2) {
+            assertEquals(bytes("v" + i), old.next().getValue());
+        }
+        assertFalse(old.hasNext());
+    }
+
+    @Test
+    void overwrite() {
+        final MemTable memTable = new MemTable(64 * 1024);
+        assertTrue(memTable.put(bytes("key"), bytes("first")));
+        final long size = memTable.sizeInBytes();
+        assertTrue(memTable.put(bytes("key"), bytes("second")));
+        assertTrue(memTable.put(bytes("other"), null));
+
+        assertEquals(2, memTable.size());
+        assertTrue(memTable.sizeInBytes() > size);
+
+        final Iterator<Cell> cells = memTable.iterator(ByteBuffer.allocate(0));
+        final Cell first = cells.next();
+        assertEquals(bytes("key"), first.getKey());
+        assertEquals(bytes("second"), first.getValue());
+        assertTrue(cells.next().isTombstone());
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void versions() {
+        final MemTable memTable = new MemTable(64 * 1024);
+        assertTrue(memTable.put(bytes("a"), bytes("first")));
+        final int mark = memTable.mark();
+        assertTrue(memTable.put(bytes("a"), bytes("second")));
+        assertTrue(memTable.put(bytes("b"), bytes("new")));
+        assertTrue(memTable.removeRange(bytes("a"), bytes("c")));
+
+        // The newest state
+        assertTrue(memTable.isRangeDeleted(bytes("a"), memTable.find(bytes("a"), MemTable.LATEST), MemTable.LATEST));
+        assertEquals(1, memTable.rangeTombstones().size());
+
+        // As of the mark
+        final int value = memTable.find(bytes("a"), mark);
+        assertEquals(bytes("first"), memTable.value(value));
+        assertFalse(memTable.isRangeDeleted(bytes("a"), value, mark));
+        assertEquals(MemTable.ABSENT, memTable.find(bytes("b"), mark));
+        assertTrue(memTable.rangeTombstones(mark).isEmpty());
+
+        final Iterator<Cell> cells = memTable.iterator(ByteBuffer.allocate(0), mark);
+        assertEquals(bytes("first"), cells.next().getValue());
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void full() {
+        final MemTable memTable = new MemTable(1024);
+        int stored = 0;
+        while (memTable.put(bytes("key" + stored), bytes("value"))) {
+            stored++;
+        }
+        assertEquals(stored, memTable.size());
+        assertTrue(memTable.sizeInBytes() <= 1024);
+    }
+}
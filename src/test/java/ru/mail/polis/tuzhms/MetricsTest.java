@@ -0,0 +1,116 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link Histogram} and the {@link LSMDao} metrics.
+ *
+ * @author tuzhms
+ */
+class MetricsTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void buckets() {
+        for (long value = 0; value < 100_000; value++) {
+            final int bucket = Histogram.bucket(value);
+            assertTrue(value <= Histogram.upperBound(bucket));
+            assertTrue(bucket == 0 || value > Histogram.upperBound(bucket - 1));
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void percentiles() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0L, histogram.stats().getCount());
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        final HistogramStats stats = histogram.stats();
+        assertEquals(1000L, stats.getCount());
+        assertEquals(500.5, stats.getMean());
+        assertEquals(1000L, stats.getMax());
+        assertTrue(stats.getP50() >= 500 && stats.getP50() <= 500 * 9 / 8);
+        assertTrue(stats.getP99() >= 990 && stats.getP99() <= 1000);
+    }
+
+    @Test
+    void allocations() {
+        final Histogram histogram = new Histogram();
+        histogram.record(1);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 100_000; i++) {
+            histogram.record(i * 31L);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue(allocated < 1024, "Allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void engine(@TempDir File data) throws Exception {
+        final Config config =
+                Config.builder()
+                        .flushThreshold(64 * 1024)
+                        .compactionThreads(0)
+                        .build();
+        final ObjectName name;
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+            }
+            dao.remove(key(0));
+            for (int i = 1; i < KEYS; i++) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(0)));
+            dao.iterator(key(0));
+
+            final EngineStats stats = dao.engineStats();
+            assertEquals(KEYS, stats.getGet().getCount());
+            assertEquals(KEYS, stats.getUpsert().getCount());
+            assertEquals(1L, stats.getRemove().getCount());
+            assertEquals(1L, stats.getIterator().getCount());
+            assertEquals(KEYS, stats.getTablesProbed().getCount());
+            assertTrue(stats.getFlushes() > 0);
+            assertEquals(0L, stats.getCompactions());
+            assertEquals(KEYS * 10L + 5, stats.getBytesIngested());
+            assertTrue(stats.getWriteAmplification() > 0.0);
+            assertTrue(stats.getReadAmplification() > 0.0);
+
+            final Map<String, Number> map = dao.stats();
+            assertEquals((long) KEYS, map.get("get.count"));
+            assertEquals(stats.getFlushes(), map.get("flushes"));
+
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName(
+                    "ru.mail.polis.tuzhms:type=LSMDao,name=" + ObjectName.quote(data.getAbsolutePath()));
+            assertEquals(stats.getFlushes(), server.getAttribute(name, "Flushes"));
+            final CompositeData latency = (CompositeData) server.getAttribute(name, "GetLatency");
+            assertEquals((long) KEYS, latency.get("count"));
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
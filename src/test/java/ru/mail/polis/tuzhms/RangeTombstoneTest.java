@@ -0,0 +1,127 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ru.mail.polis.DAO#removeRange(ByteBuffer, ByteBuffer)} backed by {@link RangeTombstones}.
+ *
+ * @author tuzhms
+ */
+class RangeTombstoneTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Config config(final Config.CompactionStyle style) {
+        return Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionStyle(style)
+                .levelTableSize(4 * 1024)
+                .levelSizeRatio(2)
+                .build();
+    }
+
+    private static boolean removed(final int i) {
+        return i >= KEYS / 4 && i < KEYS / 2 && i != KEYS / 3;
+    }
+
+    private static void check(final LSMDao dao) throws IOException {
+        for (int i = 0; i < KEYS; i += 7) {
+            if (removed(i)) {
+                final ByteBuffer key = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            } else {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+        }
+
+        final Iterator<Record> records = dao.iterator(key(KEYS / 5));
+        for (int i = KEYS / 5; i < KEYS; i++) {
+            if (!removed(i)) {
+                assertEquals(key(i), records.next().getKey());
+            }
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static void fill(final LSMDao dao) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            dao.upsert(key(i), key(i));
+        }
+        dao.removeRange(key(KEYS / 4), key(KEYS / 2));
+        // Newer than the range tombstone
+        dao.upsert(key(KEYS / 3), key(KEYS / 3));
+    }
+
+    @Test
+    void memTable(@TempDir File data) throws IOException {
+        try (LSMDao dao = new LSMDao(data, Config.DEFAULT)) {
+            fill(dao);
+            check(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, Config.DEFAULT)) {
+            check(dao);
+        }
+    }
+
+    @Test
+    void sizeTiered(@TempDir File data) throws Exception {
+        compacted(data, Config.CompactionStyle.SIZE_TIERED);
+    }
+
+    @Test
+    void leveled(@TempDir File data) throws Exception {
+        compacted(data, Config.CompactionStyle.LEVELED);
+    }
+
+    private static void compacted(
+            final File data,
+            final Config.CompactionStyle style) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(style))) {
+            fill(dao);
+            // Push the range tombstone to the tables
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(KEYS + i), key(KEYS + i));
+                dao.remove(key(KEYS + i));
+            }
+            check(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config(style))) {
+            check(dao);
+            Thread.sleep(100);
+            check(dao);
+        }
+    }
+
+    @Test
+    void union() {
+        final RangeTombstones ranges = RangeTombstones.of(key(10), key(20))
+                .union(RangeTombstones.of(key(30), key(40)))
+                .union(RangeTombstones.of(key(15), key(30)));
+        assertEquals(1, ranges.size());
+        assertTrue(ranges.covers(key(10)));
+        assertTrue(ranges.covers(key(39)));
+        assertFalse(ranges.covers(key(40)));
+        assertFalse(ranges.covers(key(9)));
+
+        final RangeTombstones clipped = ranges.clip(key(12), key(35));
+        assertEquals(key(12), clipped.from(0));
+        assertEquals(key(35), clipped.to(0));
+    }
+}
@@ -0,0 +1,242 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link SSTable} file format.
+ *
+ * @author tuzhms
+ */
+class SSTableTest {
+    private static final int COUNT = 1000;
+
+    private static ByteBuffer bytes(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer key(final int i) {
+        return bytes(i * 2);
+    }
+
+    private static boolean isTombstone(final int i) {
+        return i % 3 == 0 || i >= COUNT / 4 && i < COUNT / 2;
+    }
+
+    private static SSTable write(
+            final File data,
+            final int blockSize) throws IOException {
+        return write(data, blockSize, Config.Compression.LZ);
+    }
+
+    private static SSTable write(
+            final File data,
+            final int blockSize,
+            final Config.Compression compression) throws IOException {
+        final List<Cell> cells = new ArrayList<>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            cells.add(new Cell(key(i), isTombstone(i) ? null : key(i)));
+        }
+        final Path file = data.toPath().resolve(compression + ".sst");
+        final Config config = Config.builder().blockSize(blockSize).compression(compression).build();
+        SSTable.write(file, data.toPath().resolve("0.tmp"), config, 0L, 0, COUNT, cells.iterator(), () -> RangeTombstones.EMPTY);
+        return SSTable.open(file);
+    }
+
+    @Test
+    void seek(@TempDir File data) throws IOException {
+        final SSTable table = write(data, 64);
+        assertEquals(COUNT, table.size());
+
+        for (int i = 0; i < COUNT; i++) {
+            // Exact key
+            final Iterator<Cell> exact = table.iterator(key(i));
+            final Cell cell = exact.next();
+            assertEquals(key(i), cell.getKey());
+            assertEquals(isTombstone(i), cell.isTombstone());
+
+            // Key between the stored ones
+            assertEquals(key(i), table.iterator(bytes(i * 2 - 1)).next().getKey());
+        }
+        assertFalse(table.iterator(key(COUNT)).hasNext());
+    }
+
+    @Test
+    void scan(@TempDir File data) throws IOException {
+        final Iterator<Cell> cells = write(data, 128).iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(key(i), cells.next().getKey());
+        }
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void liveOnly(@TempDir File data) throws IOException {
+        final SSTable table = write(data, 64);
+        int tombstones = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (isTombstone(i)) {
+                tombstones++;
+            }
+        }
+        assertEquals(tombstones, table.tombstones());
+
+        for (final int from : new int[]{0, COUNT / 4, COUNT / 3, COUNT - 1}) {
+            final Iterator<Cell> cells = table.iterator(key(from), true);
+            for (int i = from; i < COUNT; i++) {
+                if (!isTombstone(i)) {
+                    final Cell cell = cells.next();
+                    assertEquals(key(i), cell.getKey());
+                    assertFalse(cell.isTombstone());
+                }
+            }
+            assertFalse(cells.hasNext());
+        }
+    }
+
+    @Test
+    void descending(@TempDir File data) throws IOException {
+        final SSTable table = write(data, 128);
+        for (final int from : new int[]{0, 1, COUNT / 3, COUNT - 1}) {
+            for (final boolean liveOnly : new boolean[]{false, true}) {
+                // Exact key and the key between the stored ones
+                for (final ByteBuffer start : new ByteBuffer[]{key(from), bytes(from * 2 + 1)}) {
+                    final Iterator<Cell> cells = table.descendingIterator(start, liveOnly);
+                    for (int i = from; i >= 0; i--) {
+                        if (!liveOnly || !isTombstone(i)) {
+                            final Cell cell = cells.next();
+                            assertEquals(key(i), cell.getKey());
+                            assertEquals(isTombstone(i), cell.isTombstone());
+                        }
+                    }
+                    assertFalse(cells.hasNext());
+                }
+            }
+        }
+        assertFalse(table.descendingIterator(ByteBuffer.allocate(0), false).hasNext());
+
+        final Iterator<Cell> all = table.descendingIterator(null, false);
+        for (int i = COUNT - 1; i >= 0; i--) {
+            assertEquals(key(i), all.next().getKey());
+        }
+        assertFalse(all.hasNext());
+    }
+
+    @Test
+    void compression(@TempDir File data) throws IOException {
+        final SSTable plain = write(data, 256, Config.Compression.NONE);
+        final SSTable compressed = write(data, 256, Config.Compression.LZ);
+        assertTrue(compressed.sizeInBytes() < plain.sizeInBytes());
+
+        final Iterator<Cell> expected = plain.iterator(ByteBuffer.allocate(0));
+        final Iterator<Cell> actual = compressed.iterator(ByteBuffer.allocate(0));
+        while (expected.hasNext()) {
+            final Cell cell = expected.next();
+            assertEquals(cell.getKey(), actual.next().getKey());
+            assertEquals(cell.getKey(), compressed.get(cell.getKey()).getKey());
+        }
+        assertFalse(actual.hasNext());
+        assertEquals(null, compressed.get(bytes(1)));
+    }
+
+    @Test
+    void find(@TempDir File data) throws IOException {
+        final SSTable table = write(data, 256, Config.Compression.NONE);
+        for (int i = 0; i < COUNT; i++) {
+            final ByteBuffer key = key(i);
+            if (isTombstone(i)) {
+                assertThrows(NoSuchElementException.class, () -> table.find(key));
+            } else {
+                assertEquals(key, table.find(key));
+            }
+            assertEquals(null, table.find(bytes(i * 2 + 1)));
+        }
+
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = COUNT / 2 + 2; i < COUNT; i += 3) {
+            keys.add(key(i));
+        }
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        int found = 0;
+        for (final ByteBuffer key : keys) {
+            found += table.find(key).remaining() > 0 ? 1 : 0;
+        }
+        final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue(found > 0);
+        // Just the view of the found value
+        assertTrue(allocated < found * 160L, "Allocated " + allocated + " bytes for " + found + " lookups");
+    }
+
+    @Test
+    void prefixes(@TempDir File data) throws IOException {
+        final List<Cell> cells = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            final String key = String.format("artist%02d:album%02d:track%02d", i / 100, i / 10 % 10, i % 10);
+            cells.add(new Cell(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)), i % 5 == 0 ? null : key(i)));
+        }
+
+        long previousSize = Long.MAX_VALUE;
+        for (final int restarts : new int[]{1, 4, 16}) {
+            final Path file = data.toPath().resolve(restarts + ".sst");
+            final Config config =
+                    Config.builder()
+                            .blockSize(512)
+                            .blockRestartInterval(restarts)
+                            .compression(Config.Compression.NONE)
+                            .build();
+            SSTable.write(file, data.toPath().resolve("0.tmp"), config, 0L, 0, COUNT, cells.iterator(),
+                    () -> RangeTombstones.EMPTY);
+            final SSTable table = SSTable.open(file);
+            assertTrue(table.sizeInBytes() < previousSize);
+            previousSize = table.sizeInBytes();
+
+            assertEquals(cells.get(0).getKey(), table.getMinKey());
+            assertEquals(cells.get(COUNT - 1).getKey(), table.getMaxKey());
+            for (int i = 0; i < COUNT; i++) {
+                final Cell cell = table.get(cells.get(i).getKey());
+                assertEquals(cells.get(i).getKey(), cell.getKey());
+                assertEquals(i % 5 == 0, cell.isTombstone());
+
+                // The prefix of the keys of the album precedes the first track
+                final ByteBuffer prefix = ByteBuffer.allocate(cell.getKey().remaining() - 1);
+                prefix.put(cell.getKey().duplicate().limit(prefix.capacity())).flip();
+                assertEquals(null, table.get(prefix));
+                assertEquals(cells.get(i - i % 10).getKey(), table.iterator(prefix).next().getKey());
+            }
+        }
+    }
+
+    @Test
+    void separator() {
+        final ByteBuffer left = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        final ByteBuffer right = ByteBuffer.wrap(new byte[]{1, 5, 0});
+        final ByteBuffer separator = ByteBuffer.wrap(SSTableWriter.separator(left, right));
+        assertEquals(2, separator.remaining());
+        assertTrue(left.compareTo(separator) <= 0);
+        assertTrue(separator.compareTo(right) < 0);
+
+        final ByteBuffer negative = ByteBuffer.wrap(new byte[]{1, -1});
+        final ByteBuffer adjacent = ByteBuffer.wrap(new byte[]{1, 0});
+        final ByteBuffer signed = ByteBuffer.wrap(SSTableWriter.separator(negative, adjacent));
+        assertTrue(negative.compareTo(signed) <= 0);
+        assertTrue(signed.compareTo(adjacent) < 0);
+    }
+}
@@ -0,0 +1,125 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link LSMDao.Snapshot} isolation from the subsequent writes.
+ *
+ * @author tuzhms
+ */
+class SnapshotTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer value(
+            final int i,
+            final int version) {
+        return ByteBuffer.wrap((i + "v" + version).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Config config() {
+        return Config.builder()
+                .flushThreshold(64 * 1024)
+                .build();
+    }
+
+    private static void check(
+            final LSMDao.Snapshot snapshot,
+            final int version) {
+        for (int i = 0; i < KEYS; i += 7) {
+            assertEquals(value(i, version), snapshot.get(key(i)));
+        }
+        final Iterator<Record> records = snapshot.range(key(KEYS / 2), key(KEYS / 2 + 100));
+        for (int i = KEYS / 2; i < KEYS / 2 + 100; i++) {
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, version), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    void isolation(@TempDir File data) throws IOException {
+        try (LSMDao dao = new LSMDao(data, config())) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, 0));
+            }
+            final LSMDao.Snapshot snapshot = dao.snapshot();
+
+            // Enough to flush and compact the captured memtable
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, 1));
+            }
+            final LSMDao.Snapshot updated = dao.snapshot();
+            dao.removeRange(key(0), key(KEYS));
+            dao.upsert(key(KEYS), value(KEYS, 2));
+
+            check(snapshot, 0);
+            check(updated, 1);
+            assertThrows(NoSuchElementException.class, () -> snapshot.get(key(KEYS)));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(0)));
+            final Iterator<Record> records = dao.iterator(key(0));
+            assertEquals(key(KEYS), records.next().getKey());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    void batches(@TempDir File data) throws Exception {
+        final int size = 100;
+        try (LSMDao dao = new LSMDao(data, config())) {
+            final AtomicBoolean done = new AtomicBoolean();
+            final Thread writer = new Thread(() -> {
+                final WriteBatch batch = new WriteBatch();
+                try {
+                    for (int version = 0; !done.get(); version++) {
+                        batch.clear();
+                        for (int i = 0; i < size; i++) {
+                            batch.upsert(key(i), value(0, version));
+                        }
+                        dao.write(batch);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+            try {
+                for (int scan = 0; scan < 1000; scan++) {
+                    final Iterator<Record> records = dao.iterator(key(0));
+                    if (!records.hasNext()) {
+                        continue;
+                    }
+                    final ByteBuffer expected = records.next().getValue();
+                    int count = 1;
+                    while (records.hasNext()) {
+                        assertEquals(expected, records.next().getValue());
+                        count++;
+                    }
+                    assertEquals(size, count);
+                }
+            } finally {
+                done.set(true);
+                writer.join();
+            }
+        }
+    }
+}
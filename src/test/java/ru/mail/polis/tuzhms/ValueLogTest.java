@@ -0,0 +1,213 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Cursor;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the large values separated to the {@link ValueLog}.
+ *
+ * @author tuzhms
+ */
+class ValueLogTest {
+    private static final int KEYS = 500;
+    private static final int ROUNDS = 8;
+    private static final int LARGE = 1024;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Every third value is small to stay in the table, the values are random not to be compressed.
+     */
+    private static ByteBuffer value(
+            final int i,
+            final int round) {
+        final byte[] bytes = new byte[i % 3 == 0 ? 16 : LARGE + i];
+        new Random(i * ROUNDS + round).nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static Config config(
+            final int threshold,
+            final int threads) {
+        return Config.builder()
+                .flushThreshold(256 * 1024)
+                .compactionThreads(threads)
+                .compactionThresholds(2, 32)
+                .valueSeparationThreshold(threshold)
+                .build();
+    }
+
+    private static void fill(final LSMDao dao) throws IOException {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 5 == 4 && round == ROUNDS - 1) {
+                    dao.remove(key(i));
+                } else {
+                    dao.upsert(key(i), value(i, round));
+                }
+            }
+        }
+    }
+
+    private static void check(final LSMDao dao) throws IOException {
+        for (int i = 0; i < KEYS; i++) {
+            if (i % 5 == 4) {
+                final ByteBuffer removed = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+            } else {
+                assertEquals(value(i, ROUNDS - 1), dao.get(key(i)));
+            }
+        }
+
+        final Iterator<Record> range = dao.range(key(100), key(200));
+        for (int i = 100; i < 200; i++) {
+            if (i % 5 == 4) {
+                continue;
+            }
+            final Record record = range.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, ROUNDS - 1), record.getValue());
+        }
+        assertFalse(range.hasNext());
+
+        final Iterator<Record> descending = dao.descendingIterator(key(KEYS - 1));
+        for (int i = KEYS - 1; i >= 0; i--) {
+            if (i % 5 == 4) {
+                continue;
+            }
+            assertEquals(value(i, ROUNDS - 1), descending.next().getValue());
+        }
+        assertFalse(descending.hasNext());
+
+        final Cursor cursor = dao.cursor();
+        cursor.seek(key(0));
+        for (int i = 0; i < KEYS; i++) {
+            if (i % 5 == 4) {
+                continue;
+            }
+            assertTrue(cursor.valid());
+            assertEquals(value(i, ROUNDS - 1), cursor.value());
+            cursor.next();
+        }
+        assertFalse(cursor.valid());
+    }
+
+    private static int segments(final File data) {
+        return Objects.requireNonNull(data.list((dir, name) -> name.endsWith(ValueLog.SUFFIX))).length;
+    }
+
+    private static void awaitTables(final LSMDao dao) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (dao.tables().size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, dao.tables().size());
+    }
+
+    @Test
+    void separated(@TempDir File data) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(LARGE, 0))) {
+            fill(dao);
+            check(dao);
+            assertTrue(segments(data) > 0, "No value log segments");
+            // The tables store the pointers only
+            for (final SSTable table : dao.tables().all()) {
+                assertTrue(table.sizeInBytes() < table.getValueRefs().bytes(0));
+            }
+        }
+        try (LSMDao dao = new LSMDao(data, config(LARGE, 0))) {
+            check(dao);
+        }
+        // The values are read from the value log once the separation is disabled
+        try (LSMDao dao = new LSMDao(data, config(0, 0))) {
+            check(dao);
+        }
+    }
+
+    @Test
+    void garbageCollection(@TempDir File data) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(LARGE, 0))) {
+            fill(dao);
+        }
+        final int flushed = segments(data);
+        final Set<Long> collected = new HashSet<>();
+        assertTrue(flushed > 1, "Not enough segments: " + flushed);
+
+        try (LSMDao dao = new LSMDao(data, config(LARGE, 1))) {
+            awaitTables(dao);
+            check(dao);
+            // The dead values of the overwritten rounds are deleted with their segments
+            final ValueRefs refs = dao.tables().get(0).getValueRefs();
+            assertEquals(refs.size(), segments(data));
+            assertTrue(refs.size() < flushed, refs.size() + " of " + flushed + " segments left");
+            for (int i = 0; i < refs.size(); i++) {
+                final long size = Files.size(data.toPath().resolve(ValueLog.name(refs.id(i))));
+                if (refs.bytes(i) * 2 <= size) {
+                    collected.add(refs.id(i));
+                }
+            }
+            dao.upsert(key(0), value(0, ROUNDS - 1));
+        }
+        assertFalse(collected.isEmpty(), "No segments to collect");
+
+        // The next compaction moves the live values out of the segments which are mostly dead
+        try (LSMDao dao = new LSMDao(data, config(LARGE, 1))) {
+            awaitTables(dao);
+            check(dao);
+            final ValueRefs refs = dao.tables().get(0).getValueRefs();
+            for (final long id : collected) {
+                assertTrue(refs.indexOf(id) < 0, "Segment " + id + " is not collected");
+                assertFalse(Files.exists(data.toPath().resolve(ValueLog.name(id))));
+            }
+        }
+        try (LSMDao dao = new LSMDao(data, config(LARGE, 0))) {
+            check(dao);
+        }
+    }
+
+    @Test
+    void writeAmplification(@TempDir File inline, @TempDir File separated) throws Exception {
+        final long inlineBytes = compactionBytes(inline, 0);
+        final long separatedBytes = compactionBytes(separated, LARGE);
+        assertTrue(
+                separatedBytes * 4 < inlineBytes,
+                "Compactions wrote " + separatedBytes + " bytes with the value log and " + inlineBytes + " without");
+    }
+
+    /**
+     * Returns the bytes written by the compaction of all the flushed tables.
+     */
+    private static long compactionBytes(
+            final File data,
+            final int threshold) throws Exception {
+        try (LSMDao dao = new LSMDao(data, config(threshold, 0))) {
+            fill(dao);
+        }
+        try (LSMDao dao = new LSMDao(data, config(threshold, 1))) {
+            awaitTables(dao);
+            check(dao);
+            return dao.engineStats().getBytesWritten();
+        }
+    }
+}
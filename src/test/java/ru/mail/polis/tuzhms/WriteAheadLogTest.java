@@ -0,0 +1,203 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.WriteBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link WriteAheadLog} recovery of the unflushed writes.
+ *
+ * @author tuzhms
+ */
+class WriteAheadLogTest {
+    private static final int KEYS = 10_000;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Config config(final Config.Durability durability) {
+        // Nothing must touch the files of the abandoned storage
+        return Config.builder()
+                .flushThreshold(64 * 1024)
+                .compactionThreads(0)
+                .durability(durability)
+                .build();
+    }
+
+    private static List<Path> logs(final File data) throws IOException {
+        try (Stream<Path> files = Files.list(data.toPath())) {
+            return files.filter(file -> file.toString().endsWith(".log")).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Waits for the background flushes, so the abandoned storage doesn't touch the files anymore.
+     */
+    private static void awaitFlushes(final File data) throws IOException, InterruptedException {
+        // Only the log of the current memtable and the one created in advance remain
+        while (logs(data).size() > 2) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void recover(@TempDir File data) throws Exception {
+        // The storage is abandoned without close as if the process crashed
+        final LSMDao crashed = new LSMDao(data, config(Config.Durability.NONE));
+        for (int i = 0; i < KEYS; i++) {
+            crashed.upsert(key(i), key(i));
+        }
+        crashed.remove(key(1));
+        crashed.removeRange(key(100), key(200));
+        crashed.upsert(key(150), key(150));
+        assertTrue(crashed.memTableSize() > 0);
+        awaitFlushes(data);
+
+        try (LSMDao dao = new LSMDao(data, config(Config.Durability.NONE))) {
+            assertTrue(logs(data).size() <= 2);
+            for (int i = 0; i < KEYS; i++) {
+                if (i == 1 || i >= 100 && i < 200 && i != 150) {
+                    final ByteBuffer key = key(i);
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                } else {
+                    assertEquals(key(i), dao.get(key(i)));
+                }
+            }
+        }
+        assertTrue(logs(data).isEmpty());
+    }
+
+    @Test
+    void batch(@TempDir File data) throws Exception {
+        final LSMDao crashed = new LSMDao(data, config(Config.Durability.NONE));
+        crashed.upsert(key(0), key(0));
+        // The batch is larger than the memtable
+        final WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < KEYS; i++) {
+            if (i % 2 == 0) {
+                batch.remove(key(i));
+            } else {
+                batch.upsert(key(i), key(i));
+            }
+        }
+        crashed.write(batch);
+        awaitFlushes(data);
+
+        try (LSMDao dao = new LSMDao(data, config(Config.Durability.NONE))) {
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 2 == 0) {
+                    final ByteBuffer key = key(i);
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                } else {
+                    assertEquals(key(i), dao.get(key(i)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void groupCommit(@TempDir File data) throws Exception {
+        final int threads = 4;
+        final LSMDao crashed = new LSMDao(data, config(Config.Durability.SYNC));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = thread; i < KEYS / 10; i += threads) {
+                        crashed.upsert(key(i), key(i));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        awaitFlushes(data);
+
+        try (LSMDao dao = new LSMDao(data, config(Config.Durability.SYNC))) {
+            for (int i = 0; i < KEYS / 10; i++) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    void rotation(@TempDir File data, @TempDir File copy) throws Exception {
+        final LSMDao crashed = new LSMDao(
+                data,
+                Config.builder()
+                        .flushThreshold(64 * 1024)
+                        .compactionThreads(0)
+                        .durability(Config.Durability.PERIODIC)
+                        .syncIntervalMillis(60_000)
+                        .build());
+        int written = 0;
+        long size = 0;
+        while (crashed.memTableSize() >= size) {
+            size = crashed.memTableSize();
+            crashed.upsert(key(written), key(written));
+            written++;
+        }
+        // The files as the operating system sees them right after the switch of the memtable,
+        // the flush can't publish the table meanwhile
+        synchronized (crashed) {
+            try (Stream<Path> files = Files.list(data.toPath())) {
+                for (final Path file : files.collect(Collectors.toList())) {
+                    Files.copy(file, copy.toPath().resolve(file.getFileName()));
+                }
+            }
+        }
+
+        try (LSMDao dao = new LSMDao(copy, config(Config.Durability.PERIODIC))) {
+            // The writes of the full memtable survive, the last one may be lost within the sync interval
+            for (int i = 0; i < written - 1; i++) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+        }
+    }
+
+    @Test
+    void tornTail(@TempDir File data) throws IOException {
+        final LSMDao crashed = new LSMDao(data, config(Config.Durability.SYNC));
+        for (int i = 0; i < 100; i++) {
+            crashed.upsert(key(i), key(i));
+        }
+        // Half-written record of the current log, the log created in advance is empty
+        final Path log = Collections.max(logs(data), Comparator.comparingLong(file -> file.toFile().length()));
+        Files.write(log, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (LSMDao dao = new LSMDao(data, config(Config.Durability.SYNC))) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+        }
+    }
+}
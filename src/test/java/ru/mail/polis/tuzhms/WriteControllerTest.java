@@ -0,0 +1,77 @@
+package ru.mail.polis.tuzhms;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link WriteController} throttling the writes of {@link LSMDao}.
+ *
+ * @author tuzhms
+ */
+class WriteControllerTest {
+    private static final int KEYS = 2_000;
+    private static final long BUDGET = 1024 * 1024;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void pressure() {
+        final Config config =
+                Config.builder()
+                        .writeMemoryThresholds(0.5, 1.0)
+                        .writeDebtThresholds(2.0, 4.0)
+                        .delayedWriteRate(1024 * 1024)
+                        .build();
+        final WriteController controller = new WriteController(config, BUDGET);
+        controller.update(BUDGET / 4, 0L);
+        assertEquals(0L, controller.delay(BUDGET));
+        assertFalse(controller.isStopped());
+
+        // The slowest rate gives 1/16 of a second to the 1/16 of the rate
+        controller.update(BUDGET - 1, 0L);
+        controller.delay(BUDGET / 256);
+        final long waited = controller.delay(1);
+        assertTrue(waited > 50_000_000L, "Waited " + waited);
+        assertFalse(controller.isStopped());
+
+        controller.update(0L, BUDGET * 4);
+        assertTrue(controller.isStopped());
+        controller.update(0L, BUDGET);
+        assertFalse(controller.isStopped());
+        assertEquals(0L, controller.delay(BUDGET));
+    }
+
+    @Test
+    void throttle(@TempDir File data) throws IOException {
+        final Config config =
+                Config.builder()
+                        .flushThreshold(64 * 1024)
+                        .memoryBudget(BUDGET)
+                        .writeMemoryThresholds(0.01, 0.5)
+                        .delayedWriteRate(256 * 1024)
+                        .compactionThreads(0)
+                        .build();
+        try (LSMDao dao = new LSMDao(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), key(i));
+            }
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(key(i), dao.get(key(i)));
+            }
+            final EngineStats stats = dao.engineStats();
+            assertTrue(stats.getDelays() > 0);
+            assertTrue(stats.getDelayNanos() > 0);
+        }
+    }
+}